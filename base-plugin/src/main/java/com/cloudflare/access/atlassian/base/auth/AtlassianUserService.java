@@ -4,6 +4,15 @@ import com.atlassian.crowd.embedded.api.User;
 
 public interface AtlassianUserService {
 
-	User getUser(String email);
+	default User getUser(String email) {
+		return getUser(email, null);
+	}
+
+	/**
+	 * @param email the email from the token
+	 * @param username the username from the token claims, null if not available
+	 * @return the single active user with the email
+	 */
+	User getUser(String email, String username);
 
 }
@@ -0,0 +1,28 @@
+package com.cloudflare.access.atlassian.base.auth;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Outcome of the authentication filter for a request, stored as a request attribute so the
+ * later dispatches of the same request, like forwards, reuse it instead of processing the
+ * token again.
+ */
+public enum AuthenticationDecision {
+	BYPASSED,
+	AUTHENTICATED,
+	REJECTED;
+
+	static final String REQUEST_ATTRIBUTE = AuthenticationDecision.class.getName();
+
+	/**
+	 * @return the decision taken on a previous dispatch of the request, null on the first one
+	 */
+	public static AuthenticationDecision of(HttpServletRequest request) {
+		Object decision = request.getAttribute(REQUEST_ATTRIBUTE);
+		return decision instanceof AuthenticationDecision ? (AuthenticationDecision) decision : null;
+	}
+
+	public void markOn(HttpServletRequest request) {
+		request.setAttribute(REQUEST_ATTRIBUTE, this);
+	}
+}
@@ -3,14 +3,9 @@ package com.cloudflare.access.atlassian.base.auth;
 import static com.cloudflare.access.atlassian.base.utils.SessionUtils.clearSession;
 import static com.cloudflare.access.atlassian.base.utils.SessionUtils.isAtlassianFlowSession;
 import static com.cloudflare.access.atlassian.base.utils.SessionUtils.sessionAlreadyContainsAuthenticatedUser;
-import static com.cloudflare.access.atlassian.base.utils.SessionUtils.storeUserEmailInSession;
-import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
-import static org.apache.commons.lang3.StringUtils.substringAfterLast;
 
 import java.io.IOException;
-import java.util.Set;
-
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
@@ -23,54 +18,48 @@ import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import com.atlassian.crowd.embedded.api.User;
-import com.atlassian.plugin.PluginAccessor;
-import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.cloudflare.access.atlassian.base.config.ConfigurationService;
 import com.cloudflare.access.atlassian.base.support.PluginStateService;
 import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
 import com.cloudflare.access.atlassian.base.utils.RequestInspector;
 import com.cloudflare.access.atlassian.base.utils.SessionUtils;
+import com.cloudflare.access.atlassian.common.VerifiedTokenCache;
 import com.cloudflare.access.atlassian.common.context.AuthenticationContext;
 import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthorizedException;
-import com.google.common.collect.Sets;
+import com.cloudflare.access.atlassian.common.exception.InvalidJWTException;
+import com.google.common.cache.CacheStats;
 
 @Component
 public class CloudflareAccessService {
 
 	private static final String AUTHORIZATION_IC_HEADER_NAME = "authorization";
 
-	private static final Set<String> STATIC_RESOURCE_EXTENSIONS =  Sets.newHashSet(
-			"js", "css", "png", "jpg", "jpeg", "woff", "ttf"
-	);
+	private static final long VERIFIED_TOKEN_CACHE_SIZE = 10000;
 
 	private static final Logger log = LoggerFactory.getLogger(CloudflareAccessService.class);
 
-	private PluginAccessor pluginAcessor;
-	private CloudflarePluginDetails pluginDetails;
 	private AtlassianUserService userService;
 	private SuccessfulAuthenticationRequestHandler successHandler;
 	private FailedAuthenticationRequestHandler failureHandler;
 	private ConfigurationService configurationService;
 	private PluginStateService pluginStateService;
 	private final boolean filteringDisabled;
+	private final VerifiedTokenCache verifiedTokenCache;
 
 	@Autowired
-	public CloudflareAccessService(@ComponentImport PluginAccessor pluginAcessor,
-									CloudflarePluginDetails pluginDetails,
-									ConfigurationService configurationService,
+	public CloudflareAccessService(ConfigurationService configurationService,
 									AtlassianUserService userService,
 									SuccessfulAuthenticationRequestHandler successHandler,
 									FailedAuthenticationRequestHandler failureHandler,
 									Environment env,
 									PluginStateService pluginStateService) {
-		this.pluginAcessor = pluginAcessor;
-		this.pluginDetails = pluginDetails;
 		this.configurationService = configurationService;
 		this.userService = userService;
 		this.successHandler = successHandler;
 		this.failureHandler = failureHandler;
 		this.filteringDisabled = EnvironmentFlags.isFiltersDisabled(env);
 		this.pluginStateService = pluginStateService;
+		this.verifiedTokenCache = new VerifiedTokenCache(VERIFIED_TOKEN_CACHE_SIZE);
 	}
 
 	public void processAuthRequest(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
@@ -81,53 +70,76 @@ public class CloudflareAccessService {
 				return;
 			}
 
+			AuthenticationDecision previousDecision = AuthenticationDecision.of(request);
+			if(previousDecision != null) {
+				log.debug("Request already {} on a previous dispatch, bypassing: {}", previousDecision, request.getRequestURI());
+				chain.doFilter(request, response);
+				return;
+			}
+
 			if(isAtlassianFlowEnabled(request)) {
 				log.debug("Atlassian flow is enabled, bypassing");
-				chain.doFilter(request, response);
+				bypass(request, response, chain);
 				return;
 			}
 
 			if(isWhitelisted(request)) {
 				log.debug("Request is whitelisted, bypassing");
-				chain.doFilter(request, response);
+				bypass(request, response, chain);
 				return;
 			}
 
 			CloudflareToken token = getValidTokenFromRequest(request);
 			if(token.isNotPresent()) {
 				log.debug("JWT token not present, bypassing auth process: {}", request.getRequestURI());
+				bypass(request, response, chain);
+				return;
+			}
+
+			if(token.isBoundToSession()) {
+				log.debug("Token already verified for user {} in this session, skipping sucess handler: {}", token.getUserEmail(), request.getRequestURI());
+				AuthenticationDecision.AUTHENTICATED.markOn(request);
 				chain.doFilter(request, response);
 				return;
 			}
 
 			if(sessionAlreadyContainsAuthenticatedUser(request, token.getUserEmail())) {
 				log.debug("Session already contains user {} , skipping sucess handler: {}", token.getUserEmail(), request.getRequestURI());
+				token.bindToSession(request);
+				AuthenticationDecision.AUTHENTICATED.markOn(request);
 				chain.doFilter(request, response);
 				return;
 			}
 
 			if(anyAuthorizationHeaderIsPresent(request)) {
 				log.debug("Authorization header is present skipping user matching...");
-				chain.doFilter(request, response);
+				token.exposeOn(request);
+				bypass(request, response, chain);
 				return;
 			}
 
 			if(requiresAtlassianAuthentication(token)) {
 				log.debug("User required to do atlassian authentication...");
-				chain.doFilter(request, response);
+				bypass(request, response, chain);
 				return;
 			}
 
-			User user = userService.getUser(token.getUserEmail());
-			successHandler.handle(request, response, chain, user);
+			AuthenticationDecision.AUTHENTICATED.markOn(request);
+			token.exposeOn(request);
+			if(successHandler.handleKnownToken(request, response, chain, token)) {
+				log.debug("Token of user {} already known, skipping user lookup: {}", token.getUserEmail(), request.getRequestURI());
+			}else {
+				User user = userService.getUser(token.getUserEmail(), token.getUsername());
+				successHandler.handle(request, response, chain, user);
+			}
 
-			storeUserEmailInSession(request, token.getUserEmail());
+			token.bindToSession(request);
+		}catch (InvalidJWTException e) {
+			log.warn("Rejected token ({}): {}", e.getStatus(), e.getMessage());
+			handleFailure(request, response, e);
 		}catch (CloudflareAccessUnauthorizedException e) {
 			log.error("Error processing authentication: " + e.getMessage(), e);
-			log.debug(RequestInspector.getRequestedResourceInfo(request));
-			log.debug(RequestInspector.getHeadersAndCookies(request));
-			SessionUtils.clearSession(request);
-			failureHandler.handle(request, response, e);
+			handleFailure(request, response, e);
 		}
 	}
 
@@ -157,6 +169,25 @@ public class CloudflareAccessService {
 		response.sendRedirect(authContext.getLogoutUrl());
 	}
 
+	public CacheStats getVerifiedTokenCacheStats() {
+		return verifiedTokenCache.getStats();
+	}
+
+	private void bypass(HttpServletRequest request, HttpServletResponse response, FilterChain chain) throws IOException, ServletException {
+		AuthenticationDecision.BYPASSED.markOn(request);
+		chain.doFilter(request, response);
+	}
+
+	private void handleFailure(HttpServletRequest request, HttpServletResponse response, CloudflareAccessUnauthorizedException e) {
+		AuthenticationDecision.REJECTED.markOn(request);
+		if(log.isDebugEnabled()) {
+			log.debug(RequestInspector.getRequestedResourceInfo(request));
+			log.debug(RequestInspector.getHeadersAndCookies(request));
+		}
+		SessionUtils.clearSession(request);
+		failureHandler.handle(request, response, e);
+	}
+
 	private boolean isRequestFilteringDisabled() {
 		return isPluginDisabled() || filteringDisabled || (isPluginConfigured() == false);
 	}
@@ -166,29 +197,19 @@ public class CloudflareAccessService {
 	}
 
 	private boolean isPluginDisabled() {
-		return pluginAcessor.isPluginEnabled(pluginDetails.getPluginKey()) == false;
+		return pluginStateService.isReady() == false;
 	}
 
 	private CloudflareToken getValidTokenFromRequest(HttpServletRequest request) {
-		return new CloudflareToken(request, getAuthContext());
+		return new CloudflareToken(request, getAuthContext(), verifiedTokenCache);
 	}
 
 	private boolean isWhitelisted(HttpServletRequest request) {
-		final String requestPath = defaultIfBlank(request.getRequestURI(), "");
-		return isErrorPath(requestPath) || isStaticResource(requestPath);
-	}
-
-	private boolean isErrorPath(String requestPath) {
-		return requestPath.endsWith(AuthenticationErrorServlet.PATH);
-	}
-
-	private boolean isStaticResource(String requestPath) {
-		String ext = substringAfterLast(requestPath, ".").toLowerCase();
-		return STATIC_RESOURCE_EXTENSIONS.contains(ext);
+		return configurationService.requestPathBypassesAuthentication(request.getRequestURI(), request.getContextPath());
 	}
 
 	private boolean isPluginConfigured() {
-		return pluginStateService.isReady() && configurationService.getPluginConfiguration().isPresent();
+		return configurationService.getPluginConfiguration().isPresent();
 	}
 
 	private AuthenticationContext getAuthContext() {
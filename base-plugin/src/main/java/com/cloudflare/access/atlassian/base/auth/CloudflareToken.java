@@ -7,11 +7,13 @@ import java.util.Arrays;
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 
-import org.apache.cxf.rs.security.jose.jwt.JwtToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudflare.access.atlassian.base.utils.SessionUtils;
 import com.cloudflare.access.atlassian.common.TokenVerifier;
+import com.cloudflare.access.atlassian.common.VerifiedToken;
+import com.cloudflare.access.atlassian.common.VerifiedTokenCache;
 import com.cloudflare.access.atlassian.common.context.AuthenticationContext;
 import com.cloudflare.access.atlassian.common.exception.InvalidJWTException;
 
@@ -19,22 +21,33 @@ public class CloudflareToken {
 
 	public static final String CF_ACCESS_JWT_HEADER = "cf-access-jwt-assertion";
 	public static final String CF_ACCESS_JWT_COOKIE = "CF_Authorization";
+	public static final String FINGERPRINT_ATTRIBUTE = CloudflareToken.class.getName() + ".fingerprint";
+	public static final String EXPIRES_AT_ATTRIBUTE = CloudflareToken.class.getName() + ".expiresAt";
 
 	private static final Logger log = LoggerFactory.getLogger(CloudflareToken.class);
 
 	private final boolean tokenNotPresent;
-	private JwtToken jwt;
+	private String fingerprint;
+	private VerifiedToken verifiedToken;
+	private boolean boundToSession;
 
 	public CloudflareToken(HttpServletRequest request) {
 		String token = getJWT(request);
 		this.tokenNotPresent = isBlank(token);
 	}
 
-	public CloudflareToken(HttpServletRequest request, AuthenticationContext authContext) {
+	public CloudflareToken(HttpServletRequest request, AuthenticationContext authContext, VerifiedTokenCache verifiedTokenCache) {
 		String token = getJWT(request);
 		this.tokenNotPresent = isBlank(token);
 		if(this.tokenNotPresent == false) {
-			this.jwt = new TokenVerifier(authContext).validate(token);
+			this.fingerprint = VerifiedTokenCache.fingerprint(authContext, token);
+			this.verifiedToken = SessionUtils.getVerifiedTokenFromSession(request, fingerprint, authContext.getClock())
+					.filter(sessionToken -> isSigningKeyAvailable(authContext, sessionToken))
+					.orElse(null);
+			this.boundToSession = this.verifiedToken != null;
+			if(this.boundToSession == false) {
+				this.verifiedToken = new TokenVerifier(authContext, verifiedTokenCache).getVerifiedToken(token);
+			}
 		}
 	}
 
@@ -44,10 +57,56 @@ public class CloudflareToken {
 
 	public String getUserEmail() {
 		tokenMustBePresent();
-		return (String) jwt.getClaim("email");
+		return verifiedToken.getEmail();
 	}
 
-	private String getJWT(HttpServletRequest request) {
+	/**
+	 * @return the username from the configured username claim, null if not available
+	 */
+	public String getUsername() {
+		tokenMustBePresent();
+		return verifiedToken.getUsername();
+	}
+
+	/**
+	 * @return the fingerprint identifying the verified token, like in the caches of what was resolved for it
+	 */
+	public String getFingerprint() {
+		tokenMustBePresent();
+		return fingerprint;
+	}
+
+	/**
+	 * @return true if the token is the one already verified and bound to the request session
+	 */
+	public boolean isBoundToSession() {
+		return this.boundToSession;
+	}
+
+	public void bindToSession(HttpServletRequest request) {
+		tokenMustBePresent();
+		SessionUtils.storeVerifiedTokenInSession(request, fingerprint, verifiedToken);
+	}
+
+	/**
+	 * Exposes the token fingerprint and expiry time as request attributes, letting the product
+	 * handlers cache what they resolve for this token until it expires. Only verified tokens are
+	 * exposed, on the requests authenticated with them or bypassed for their Authorization header.
+	 */
+	public void exposeOn(HttpServletRequest request) {
+		tokenMustBePresent();
+		request.setAttribute(FINGERPRINT_ATTRIBUTE, fingerprint);
+		request.setAttribute(EXPIRES_AT_ATTRIBUTE, verifiedToken.getExpiresAt());
+	}
+
+	private boolean isSigningKeyAvailable(AuthenticationContext authContext, VerifiedToken sessionToken) {
+		return authContext.getSigningKeyRegistry().getVerifier(sessionToken.getKeyId()).isPresent();
+	}
+
+	/**
+	 * @return the raw token of the request header or cookie, without verifying it
+	 */
+	public static String getJWT(HttpServletRequest request) {
 		String jwt = getFromHeader(request);
 		if(isBlank(jwt)) {
 			log.debug("JWT not available in header");
@@ -60,11 +119,11 @@ public class CloudflareToken {
 		return jwt;
 	}
 
-	private String getFromHeader(HttpServletRequest request){
+	private static String getFromHeader(HttpServletRequest request){
 		return request.getHeader(CF_ACCESS_JWT_HEADER);
 	}
 
-	private String getFromCookie(HttpServletRequest request){
+	private static String getFromCookie(HttpServletRequest request){
 		if(request.getCookies() == null) {
 			return null;
 		}
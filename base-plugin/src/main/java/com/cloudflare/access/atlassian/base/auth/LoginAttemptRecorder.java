@@ -0,0 +1,131 @@
+package com.cloudflare.access.atlassian.base.auth;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
+import com.cloudflare.access.atlassian.common.concurrent.BatchingWorker;
+
+/**
+ * Records the product login attempts of the users authenticated by Cloudflare Access, like the
+ * last login date and login count updates of the product login managers, and writes the plugin
+ * audit entry of each login.
+ *
+ * The product login managers are always called on the request thread, as they rely on the request,
+ * its session and the context the product sets up for the request thread. When enabled with
+ * {@link EnvironmentFlags#ASYNC_LOGIN_RECORDING}, only the audit entries are queued and written in
+ * batches by a single background worker, in the order of the logins. Entries that don't fit in the
+ * queue are dropped and counted, and the queued ones are written before the plugin stops.
+ */
+@Component
+public class LoginAttemptRecorder implements InitializingBean, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(LoginAttemptRecorder.class);
+
+	private static final int QUEUE_CAPACITY = 1000;
+	private static final int BATCH_SIZE = 50;
+	private static final Duration SHUTDOWN_TIMEOUT = Duration.ofSeconds(10);
+
+	private final Clock clock;
+	private final Consumer<LoginAttempt> audit;
+	private final BatchingWorker<LoginAttempt> worker;
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	@Autowired
+	public LoginAttemptRecorder(Environment env) {
+		this(EnvironmentFlags.isAsyncLoginRecording(env), QUEUE_CAPACITY, Clock.systemUTC(), LoginAttemptRecorder::writeAuditEntry);
+	}
+
+	LoginAttemptRecorder(boolean async, int queueCapacity, Clock clock, Consumer<LoginAttempt> audit) {
+		this.clock = clock;
+		this.audit = audit;
+		this.worker = async ? new BatchingWorker<>("cloudflare-access-login-audit", queueCapacity, BATCH_SIZE, this::auditBatch) : null;
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if(worker != null) {
+			log.info("Writing login audit entries asynchronously");
+			worker.start();
+		}
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		if(worker != null) {
+			worker.shutdown(SHUTDOWN_TIMEOUT);
+		}
+	}
+
+	public void record(HttpServletRequest request, String username, BiConsumer<HttpServletRequest, String> productRecording) {
+		productRecording.accept(request, username);
+
+		LoginAttempt attempt = new LoginAttempt(username, request.getRemoteAddr(), clock.instant());
+		if(worker == null) {
+			audit.accept(attempt);
+			return;
+		}
+		if(worker.submit(attempt) == false) {
+			long dropped = droppedCount.incrementAndGet();
+			log.warn("Login audit queue is full, dropped the audit entry of user {} ({} dropped so far)", username, dropped);
+		}
+	}
+
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	private void auditBatch(List<LoginAttempt> attempts) {
+		log.debug("Writing a batch of {} login audit entries", attempts.size());
+		for(LoginAttempt attempt : attempts) {
+			try {
+				audit.accept(attempt);
+			}catch (RuntimeException e) {
+				log.warn("Unable to write the login audit entry of user {}: {}", attempt.getUsername(), e.getMessage());
+			}
+		}
+	}
+
+	private static void writeAuditEntry(LoginAttempt attempt) {
+		log.info("User {} logged in with Cloudflare Access from {} at {}", new Object[]{attempt.getUsername(), attempt.getClientAddress(), attempt.getTime()});
+	}
+
+	static class LoginAttempt {
+		private final String username;
+		private final String clientAddress;
+		private final Instant time;
+
+		LoginAttempt(String username, String clientAddress, Instant time) {
+			this.username = username;
+			this.clientAddress = clientAddress;
+			this.time = time;
+		}
+
+		String getUsername() {
+			return username;
+		}
+
+		String getClientAddress() {
+			return clientAddress;
+		}
+
+		Instant getTime() {
+			return time;
+		}
+	}
+}
@@ -13,4 +13,15 @@ public interface SuccessfulAuthenticationRequestHandler {
 
 	void handle(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain, User user) throws IOException, ServletException;
 
+	/**
+	 * Handles a request without a session whose token already authenticated a user on a previous
+	 * request, letting the product continue with what it kept for the token instead of resolving
+	 * the user again.
+	 *
+	 * @return true if the request was handled, false to resolve the user and call {@link #handle}
+	 */
+	default boolean handleKnownToken(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain, CloudflareToken token) throws IOException, ServletException {
+		return false;
+	}
+
 }
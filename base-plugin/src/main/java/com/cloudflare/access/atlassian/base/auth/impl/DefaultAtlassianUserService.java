@@ -1,53 +1,304 @@
 package com.cloudflare.access.atlassian.base.auth.impl;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import com.atlassian.crowd.embedded.api.CrowdService;
 import com.atlassian.crowd.embedded.api.SearchRestriction;
 import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.crowd.event.user.UserCreatedEvent;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserUpdatedEvent;
 import com.atlassian.crowd.search.builder.Combine;
 import com.atlassian.crowd.search.query.entity.UserQuery;
 import com.atlassian.crowd.search.query.entity.restriction.MatchMode;
 import com.atlassian.crowd.search.query.entity.restriction.TermRestriction;
 import com.atlassian.crowd.search.query.entity.restriction.constants.UserTermKeys;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.cloudflare.access.atlassian.base.auth.AtlassianUserService;
+import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
+import com.cloudflare.access.atlassian.common.concurrent.SingleFlight;
 import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthorizedException;
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.Iterators;
 
+/**
+ * Resolves the user of an email with a directory search, caching the users found and,
+ * for a shorter time, the emails without any user.
+ *
+ * When configured, the username from the token claims and the email local part are first
+ * looked up directly by username, accepting the user only if it is active and has the token
+ * email. Otherwise the search by email stops at the second match, enough to reject ambiguous
+ * emails.
+ *
+ * A user found by username is still only accepted if the same bounded search finds no other
+ * active user with the email, so both paths resolve only the single active user of the email.
+ * Directories where emails are shared on purpose can opt out of that check with
+ * {@link EnvironmentFlags#USERNAME_MATCH_TRUSTED}, trusting the username match alone.
+ *
+ * Both caches are invalidated by the Crowd user created, updated and deleted events of this node.
+ * As changes on other nodes or by directory synchronizations send no event here, a cached user is
+ * loaded again by username once its last check is older than a minute, and dropped if no longer
+ * active with the email, so such changes are picked up within that interval.
+ *
+ * Concurrent lookups of the same uncached email, like the parallel requests of a user opening
+ * many tabs before having a session, share a single directory search. A request still waiting
+ * for it after the lookup timeout is rejected rather than searching again.
+ */
 @Component
-public class DefaultAtlassianUserService implements AtlassianUserService{
+public class DefaultAtlassianUserService implements AtlassianUserService, InitializingBean, DisposableBean{
 
-	private CrowdService crowdService;
+	private static final Logger log = LoggerFactory.getLogger(DefaultAtlassianUserService.class);
+
+	private static final long CACHE_SIZE = 10000;
+	private static final long USER_TTL_MINUTES = 10;
+	private static final long UNKNOWN_EMAIL_TTL_MINUTES = 1;
+	private static final long REVALIDATE_INTERVAL_NANOS = TimeUnit.MINUTES.toNanos(1);
+	private static final Duration LOOKUP_WAIT_TIMEOUT = Duration.ofSeconds(5);
+	private static final int MAX_SEARCH_RESULTS = 2;
+
+	private final CrowdService crowdService;
+	private final EventPublisher eventPublisher;
+	private final boolean usernameFromEmail;
+	private final boolean usernameMatchTrusted;
+	private final Ticker ticker;
+	private final Cache<String, CachedUser> usersByEmail;
+	private final Cache<String, Boolean> unknownEmails;
+	private final SingleFlight<String, User> lookups;
 
 	@Autowired
-	public DefaultAtlassianUserService(@ComponentImport CrowdService crowdService) {
+	public DefaultAtlassianUserService(@ComponentImport CrowdService crowdService, @ComponentImport EventPublisher eventPublisher, Environment env) {
+		this(crowdService, eventPublisher, EnvironmentFlags.isUsernameFromEmail(env), EnvironmentFlags.isUsernameMatchTrusted(env), Ticker.systemTicker());
+	}
+
+	DefaultAtlassianUserService(CrowdService crowdService, EventPublisher eventPublisher, boolean usernameFromEmail, boolean usernameMatchTrusted, Ticker ticker) {
 		this.crowdService = crowdService;
+		this.eventPublisher = eventPublisher;
+		this.usernameFromEmail = usernameFromEmail;
+		this.usernameMatchTrusted = usernameMatchTrusted;
+		this.ticker = ticker;
+		this.usersByEmail = CacheBuilder.newBuilder()
+				.maximumSize(CACHE_SIZE)
+				.expireAfterWrite(USER_TTL_MINUTES, TimeUnit.MINUTES)
+				.ticker(ticker)
+				.recordStats()
+				.build();
+		this.unknownEmails = CacheBuilder.newBuilder()
+				.maximumSize(CACHE_SIZE)
+				.expireAfterWrite(UNKNOWN_EMAIL_TTL_MINUTES, TimeUnit.MINUTES)
+				.ticker(ticker)
+				.recordStats()
+				.build();
+		this.lookups = new SingleFlight<>(LOOKUP_WAIT_TIMEOUT);
 	}
 
 	@Override
-	public User getUser(String userEmail) {
-		SearchRestriction userCriteria = Combine.allOf(
-				new TermRestriction<>(UserTermKeys.EMAIL, MatchMode.EXACTLY_MATCHES, userEmail),
-				new TermRestriction<>(UserTermKeys.ACTIVE, true)
-		);
-		UserQuery<User> query = new UserQuery<>(User.class, userCriteria, 0, Integer.MAX_VALUE);
+	public void afterPropertiesSet() throws Exception {
+		this.eventPublisher.register(this);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.eventPublisher.unregister(this);
+	}
+
+	@Override
+	public User getUser(String userEmail, String username) {
+		String cacheKey = toCacheKey(userEmail);
+		CachedUser cachedUser = usersByEmail.getIfPresent(cacheKey);
+		if(cachedUser != null) {
+			User currentUser = revalidate(userEmail, cachedUser);
+			if(currentUser != null) {
+				return currentUser;
+			}
+			usersByEmail.invalidate(cacheKey);
+		}
+		if(unknownEmails.getIfPresent(cacheKey) != null) {
+			throw userNotFound(userEmail);
+		}
+
+		return lookups.execute(cacheKey, () -> findUser(userEmail, username, cacheKey));
+	}
+
+	/**
+	 * Loads the cached user again by username, cheap compared to the search, when it was last checked
+	 * more than the revalidation interval ago, so a user deactivated or changed without an event reaching
+	 * this node, like on another node or by a directory synchronization, is not trusted for long.
+	 *
+	 * @return the current user, null if it is no longer active or no longer has the email
+	 */
+	private User revalidate(String userEmail, CachedUser cachedUser) {
+		long now = ticker.read();
+		if(now - cachedUser.checkedAt < REVALIDATE_INTERVAL_NANOS) {
+			return cachedUser.user;
+		}
+		User currentUser = crowdService.getUser(cachedUser.user.getName());
+		if(isActiveWithEmail(currentUser, userEmail)) {
+			cachedUser.user = currentUser;
+			cachedUser.checkedAt = now;
+			return currentUser;
+		}
+		log.debug("Cached user {} no longer active with email {}", cachedUser.user.getName(), userEmail);
+		return null;
+	}
+
+	private User findUser(String userEmail, String username, String cacheKey) {
+		User user = findUserByUsername(userEmail, username);
+		if(user == null) {
+			user = searchUserByEmail(userEmail, cacheKey);
+		}else if(usernameMatchTrusted == false) {
+			ensureOnlyUserWithEmail(user, userEmail);
+		}
+		usersByEmail.put(cacheKey, new CachedUser(user, ticker.read()));
+		return user;
+	}
+
+	private User findUserByUsername(String userEmail, String username) {
+		for(String candidate : getUsernameCandidates(userEmail, username)) {
+			User user = crowdService.getUser(candidate);
+			if(isActiveWithEmail(user, userEmail)) {
+				log.debug("User {} found by username for email {}", user.getName(), userEmail);
+				return user;
+			}
+		}
+		return null;
+	}
+
+	private static boolean isActiveWithEmail(User user, String userEmail) {
+		return user != null && user.isActive() && StringUtils.equalsIgnoreCase(userEmail, user.getEmailAddress());
+	}
+
+	private List<String> getUsernameCandidates(String userEmail, String username) {
+		List<String> candidates = new ArrayList<>(2);
+		if(StringUtils.isNotBlank(username)) {
+			candidates.add(username);
+		}
+		String emailLocalPart = StringUtils.substringBefore(userEmail, "@");
+		if(usernameFromEmail && StringUtils.isNotBlank(emailLocalPart) && candidates.contains(emailLocalPart) == false) {
+			candidates.add(emailLocalPart);
+		}
+		return candidates;
+	}
 
-		Iterator<User> users = crowdService.search(query).iterator();
+	private User searchUserByEmail(String userEmail, String cacheKey) {
+		Iterator<User> users = searchActiveUsersByEmail(userEmail);
 		User user  = Iterators.getNext(users, null);
 
 		if(user == null) {
-			throw new CloudflareAccessUnauthorizedException(String.format("Cloudflare Access authentication was successful, but it appears that no user profile matches the email address %s.", userEmail));
+			unknownEmails.put(cacheKey, Boolean.TRUE);
+			throw userNotFound(userEmail);
 		}
 
 		if(users.hasNext()) {
-			throw new CloudflareAccessUnauthorizedException(String.format("Cloudflare Access authentication was successful, but it appears that more than one user profile matches the email address %s.", userEmail));
+			throw moreThanOneUser(userEmail);
 		}
 
 		return user;
 	}
 
+	/**
+	 * Rejects a user found by username when the search by email also finds another active user,
+	 * the same rule the search applies on its own.
+	 */
+	private void ensureOnlyUserWithEmail(User user, String userEmail) {
+		Iterator<User> users = searchActiveUsersByEmail(userEmail);
+		while(users.hasNext()) {
+			if(StringUtils.equalsIgnoreCase(user.getName(), users.next().getName()) == false) {
+				throw moreThanOneUser(userEmail);
+			}
+		}
+	}
+
+	private Iterator<User> searchActiveUsersByEmail(String userEmail) {
+		SearchRestriction userCriteria = Combine.allOf(
+				new TermRestriction<>(UserTermKeys.EMAIL, MatchMode.EXACTLY_MATCHES, userEmail),
+				new TermRestriction<>(UserTermKeys.ACTIVE, true)
+		);
+		UserQuery<User> query = new UserQuery<>(User.class, userCriteria, 0, MAX_SEARCH_RESULTS);
+		return crowdService.search(query).iterator();
+	}
+
+	@EventListener
+	public void onUserCreated(UserCreatedEvent event) {
+		invalidateEmail(event.getUser().getEmailAddress());
+	}
+
+	@EventListener
+	public void onUserUpdated(UserUpdatedEvent event) {
+		invalidateUser(event.getUser().getName());
+		invalidateEmail(event.getUser().getEmailAddress());
+	}
+
+	@EventListener
+	public void onUserDeleted(UserDeletedEvent event) {
+		invalidateUser(event.getUsername());
+	}
+
+	public CacheStats getUserCacheStats() {
+		return usersByEmail.stats();
+	}
+
+	public CacheStats getUnknownEmailCacheStats() {
+		return unknownEmails.stats();
+	}
+
+	private void invalidateEmail(String email) {
+		if(email != null) {
+			log.debug("Invalidating cached user lookups of email {}", email);
+			usersByEmail.invalidate(toCacheKey(email));
+			unknownEmails.invalidate(toCacheKey(email));
+		}
+	}
+
+	/**
+	 * Removes the user whatever the cached email, as the events of renamed or deleted
+	 * users don't carry the previous email.
+	 */
+	private void invalidateUser(String username) {
+		if(username != null) {
+			log.debug("Invalidating cached user lookups of user {}", username);
+			usersByEmail.asMap().values().removeIf(cached -> username.equalsIgnoreCase(cached.user.getName()));
+		}
+	}
+
+	private CloudflareAccessUnauthorizedException moreThanOneUser(String userEmail) {
+		return new CloudflareAccessUnauthorizedException(String.format("Cloudflare Access authentication was successful, but it appears that more than one user profile matches the email address %s.", userEmail));
+	}
+
+	private CloudflareAccessUnauthorizedException userNotFound(String userEmail) {
+		return new CloudflareAccessUnauthorizedException(String.format("Cloudflare Access authentication was successful, but it appears that no user profile matches the email address %s.", userEmail));
+	}
+
+	private static String toCacheKey(String email) {
+		return Objects.toString(email, "").toLowerCase(Locale.ROOT);
+	}
+
+	private static class CachedUser {
+		private volatile User user;
+		private volatile long checkedAt;
+
+		CachedUser(User user, long checkedAt) {
+			this.user = user;
+			this.checkedAt = checkedAt;
+		}
+	}
 }
@@ -0,0 +1,20 @@
+package com.cloudflare.access.atlassian.base.config;
+
+import java.util.function.LongConsumer;
+
+/**
+ * Tells the other cluster nodes that the configuration was saved, so they drop their
+ * cached configuration snapshot and load the saved one.
+ */
+public interface ConfigurationInvalidationTransport {
+
+	/**
+	 * Announces the revision just saved by this node, this node listeners are not notified of it.
+	 */
+	void publish(long revision);
+
+	/**
+	 * @param listener notified with the new revision when another node saves the configuration
+	 */
+	void subscribe(LongConsumer listener);
+}
@@ -13,4 +13,11 @@ public interface ConfigurationService {
 	Optional<PluginConfiguration> getPluginConfiguration();
 
 	boolean emailDomainRequiresAtlassianAuthentication(String email);
+
+	/**
+	 * @param requestUri the request URI
+	 * @param contextPath the application context path, ignored when classifying the URI
+	 * @return true if the request path matches a default or configured bypass rule
+	 */
+	boolean requestPathBypassesAuthentication(String requestUri, String contextPath);
 }
@@ -134,8 +134,9 @@ public class ConfigurationServlet extends HttpServlet{
 		String tokenAudience = request.getParameter("tokenAudience");
 	    String authDomain = request.getParameter("authDomain");
 	    String allowedEmailDomain = request.getParameter("allowedEmailDomain");
+	    String bypassPaths = request.getParameter("bypassPaths");
 
-		return new ConfigurationVariables(tokenAudience, authDomain, allowedEmailDomain);
+		return new ConfigurationVariables(tokenAudience, authDomain, allowedEmailDomain, bypassPaths);
 	}
 
 	private Map<String, Object> createContext(){
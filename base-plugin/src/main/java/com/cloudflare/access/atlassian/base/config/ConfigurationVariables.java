@@ -8,6 +8,7 @@ import org.apache.commons.lang3.builder.ToStringBuilder;
 import org.apache.commons.lang3.builder.ToStringStyle;
 
 import com.cloudflare.access.atlassian.base.config.validation.NullableDomain;
+import com.cloudflare.access.atlassian.base.config.validation.PathRules;
 
 public class ConfigurationVariables {
 
@@ -30,18 +31,27 @@ public class ConfigurationVariables {
 	@NullableDomain(message="cfaccess.config.allowedEmailDomain.should.be.valid")
 	private String allowedEmailDomain;
 
+	@PathRules(message="cfaccess.config.bypassPaths.should.be.valid")
+	private String bypassPaths;
+
 	public ConfigurationVariables(ConfigurationVariablesActiveObject activeObject) {
 		super();
 		this.tokenAudience = activeObject.getTokenAudience();
 		this.authDomain = activeObject.getAuthDomain();
 		this.allowedEmailDomain = activeObject.getAllowedEmailDomain();
+		this.bypassPaths = activeObject.getBypassPaths();
 	}
 
 	public ConfigurationVariables(String tokenAudience, String authDomain, String allowedEmailDomain) {
+		this(tokenAudience, authDomain, allowedEmailDomain, null);
+	}
+
+	public ConfigurationVariables(String tokenAudience, String authDomain, String allowedEmailDomain, String bypassPaths) {
 		super();
 		this.tokenAudience = tokenAudience;
 		this.authDomain = authDomain;
 		this.allowedEmailDomain = allowedEmailDomain;
+		this.bypassPaths = bypassPaths;
 	}
 
 	public String getTokenAudience() {
@@ -56,6 +66,13 @@ public class ConfigurationVariables {
 		return allowedEmailDomain;
 	}
 
+	/**
+	 * @return request path rules, in addition to the default ones, of requests that bypass the token verification
+	 */
+	public String getBypassPaths() {
+		return bypassPaths;
+	}
+
 	@Override
 	public String toString() {
 		return ToStringBuilder.reflectionToString(this, ToStringStyle.SHORT_PREFIX_STYLE);
@@ -1,6 +1,7 @@
 package com.cloudflare.access.atlassian.base.config;
 
 import net.java.ao.Entity;
+import net.java.ao.schema.StringLength;
 import net.java.ao.schema.Table;
 
 @Table("cf_config_vars")
@@ -14,4 +15,14 @@ public interface ConfigurationVariablesActiveObject extends Entity{
 
 	String getAllowedEmailDomain();
 	void setAllowedEmailDomain(String allowedEmailDomain);
+
+	@StringLength(StringLength.UNLIMITED)
+	String getBypassPaths();
+	void setBypassPaths(String bypassPaths);
+
+	/**
+	 * Unique value replaced on every save, null for configurations saved before revisions were introduced
+	 */
+	Long getRevision();
+	void setRevision(Long revision);
 }
@@ -1,22 +1,48 @@
 package com.cloudflare.access.atlassian.base.config;
 
+import static org.apache.commons.lang3.StringUtils.defaultString;
+import static org.apache.commons.lang3.StringUtils.substringAfterLast;
+
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
 
 import org.apache.commons.lang3.StringUtils;
 
+import com.cloudflare.access.atlassian.base.auth.AuthenticationErrorServlet;
 import com.cloudflare.access.atlassian.common.CertificateProvider;
+import com.cloudflare.access.atlassian.common.RequestPathClassifier;
+import com.cloudflare.access.atlassian.common.SigningKeyRegistry;
 import com.cloudflare.access.atlassian.common.config.PluginConfiguration;
 import com.cloudflare.access.atlassian.common.context.AuthenticationContext;
 
+/**
+ * Immutable snapshot of the persisted configuration, with every value derived from the
+ * configuration variables resolved once when the snapshot is created.
+ */
 public class PersistentPluginConfiguration implements PluginConfiguration{
 
-	private AuthenticationContext authContext;
-	private ConfigurationVariables variables;
+	private final ConfigurationVariables variables;
+	private final AuthenticationContext authContext;
+	private final Optional<String> allowedEmailDomain;
+	private final RequestPathClassifier bypassPathClassifier;
 
 	public PersistentPluginConfiguration(ConfigurationVariables variables, CertificateProvider certificateProvider) {
-		this.authContext = new PersistentAuthenticationContext(variables, certificateProvider);
+		this(variables, certificateProvider, null);
+	}
+
+	/**
+	 * @param usernameClaim the token claim holding the Atlassian username, null if tokens don't carry it
+	 */
+	public PersistentPluginConfiguration(ConfigurationVariables variables, CertificateProvider certificateProvider, String usernameClaim) {
 		this.variables = variables;
+		this.authContext = new PersistentAuthenticationContext(variables, certificateProvider, usernameClaim);
+		this.allowedEmailDomain = Optional.ofNullable(StringUtils.defaultIfEmpty(variables.getAllowedEmailDomain(), null));
+		this.bypassPathClassifier = createBypassPathClassifier(variables);
+	}
+
+	public ConfigurationVariables getVariables() {
+		return variables;
 	}
 
 	@Override
@@ -26,33 +52,82 @@ public class PersistentPluginConfiguration implements PluginConfiguration{
 
 	@Override
 	public Optional<String> getAllowedEmailDomain() {
-		return Optional.ofNullable(StringUtils.defaultIfEmpty(variables.getAllowedEmailDomain(), null));
+		return allowedEmailDomain;
+	}
+
+	/**
+	 * @return true if an allowed email domain is configured and the email is not from it
+	 */
+	public boolean emailDomainRequiresAtlassianAuthentication(String email) {
+		if(allowedEmailDomain.isPresent() == false) {
+			//by default, don't require atlassian authentication.
+			return false;
+		}
+		String emailDomain = defaultString(substringAfterLast(email, "@"), "");
+		return emailDomain.equalsIgnoreCase(allowedEmailDomain.get()) == false;
+	}
+
+	/**
+	 * @return true if the request path, without the context path, matches a bypass rule
+	 */
+	public boolean requestPathBypassesAuthentication(String requestUri, String contextPath) {
+		if(requestUri == null) {
+			return false;
+		}
+		int pathStart = contextPath != null && requestUri.startsWith(contextPath) ? contextPath.length() : 0;
+		return bypassPathClassifier.classify(requestUri, pathStart) != null;
+	}
+
+	public RequestPathClassifier getBypassPathClassifier() {
+		return bypassPathClassifier;
+	}
+
+	private static RequestPathClassifier createBypassPathClassifier(ConfigurationVariables variables) {
+		List<String> rules = new ArrayList<>();
+		rules.add(AuthenticationErrorServlet.PATH);
+		rules.addAll(RequestPathClassifier.DEFAULT_RULES);
+		rules.addAll(RequestPathClassifier.parseRules(variables.getBypassPaths()));
+		return new RequestPathClassifier(rules);
 	}
 
 	public static final class PersistentAuthenticationContext implements AuthenticationContext{
 
-		private ConfigurationVariables variables;
-		private CertificateProvider certificateProvider;
+		private final String audience;
+		private final String issuer;
+		private final String certsUrl;
+		private final CertificateProvider certificateProvider;
+		private final String usernameClaim;
 
 		public PersistentAuthenticationContext(ConfigurationVariables variables, CertificateProvider certificateProvider) {
-			this.variables = variables;
+			this(variables, certificateProvider, null);
+		}
+
+		public PersistentAuthenticationContext(ConfigurationVariables variables, CertificateProvider certificateProvider, String usernameClaim) {
+			this.usernameClaim = usernameClaim;
+			this.audience = variables.getTokenAudience();
+			this.issuer = String.format("https://%s", variables.getAuthDomain());
+			this.certsUrl = String.format("https://%s/cdn-cgi/access/certs", variables.getAuthDomain());
 			this.certificateProvider = certificateProvider;
 		}
 
 		@Override
 		public String getAudience() {
-			return variables.getTokenAudience();
+			return audience;
 		}
 
 		@Override
 		public String getIssuer() {
-			return String.format("https://%s", variables.getAuthDomain());
+			return issuer;
 		}
 
 		@Override
 		public List<String> getSigningKeyAsJson() {
-			String url = String.format("https://%s/cdn-cgi/access/certs", variables.getAuthDomain());
-			return this.certificateProvider.getCerticatesAsJson(url);
+			return this.certificateProvider.getCerticatesAsJson(certsUrl);
+		}
+
+		@Override
+		public SigningKeyRegistry getSigningKeyRegistry() {
+			return this.certificateProvider.getSigningKeyRegistry(certsUrl);
 		}
 
 		@Override
@@ -60,6 +135,11 @@ public class PersistentPluginConfiguration implements PluginConfiguration{
 			return "/cdn-cgi/access/logout";
 		}
 
+		@Override
+		public String getUsernameClaim() {
+			return usernameClaim;
+		}
+
 	}
 
 }
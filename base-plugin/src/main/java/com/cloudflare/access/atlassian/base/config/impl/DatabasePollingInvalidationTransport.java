@@ -0,0 +1,108 @@
+package com.cloudflare.access.atlassian.base.config.impl;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongConsumer;
+
+import javax.inject.Inject;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.stereotype.Component;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.cloudflare.access.atlassian.base.config.ConfigurationInvalidationTransport;
+import com.cloudflare.access.atlassian.base.config.ConfigurationVariablesActiveObject;
+
+/**
+ * Detects configuration saves from other cluster nodes by polling the revision of the persisted
+ * configuration every few seconds from a background thread, request threads never query it.
+ *
+ * The first poll always notifies the listeners, as a save may have happened between the
+ * local configuration load and that poll.
+ */
+@Component
+public class DatabasePollingInvalidationTransport implements ConfigurationInvalidationTransport, InitializingBean, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(DatabasePollingInvalidationTransport.class);
+
+	private static final long POLL_INTERVAL_SECONDS = 5;
+	private static final long UNKNOWN_REVISION = -1;
+
+	private final ActiveObjects activeObjects;
+	private final List<LongConsumer> listeners;
+	private final AtomicLong lastSeenRevision;
+	private final ScheduledExecutorService pollScheduler;
+
+	@Inject
+	public DatabasePollingInvalidationTransport(@ComponentImport ActiveObjects activeObjects) {
+		this.activeObjects = activeObjects;
+		this.listeners = new CopyOnWriteArrayList<>();
+		this.lastSeenRevision = new AtomicLong(UNKNOWN_REVISION);
+		this.pollScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cloudflare-access-config-poll");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		pollScheduler.scheduleWithFixedDelay(this::poll, POLL_INTERVAL_SECONDS, POLL_INTERVAL_SECONDS, TimeUnit.SECONDS);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		pollScheduler.shutdownNow();
+	}
+
+	@Override
+	public void publish(long revision) {
+		lastSeenRevision.set(revision);
+	}
+
+	@Override
+	public void subscribe(LongConsumer listener) {
+		listeners.add(listener);
+	}
+
+	void poll() {
+		try {
+			Optional<Long> persistedRevision = readPersistedRevision();
+			if(persistedRevision.isPresent() == false) {
+				return;
+			}
+
+			long revision = persistedRevision.get();
+			long previousRevision = lastSeenRevision.getAndSet(revision);
+			if(previousRevision != revision) {
+				log.info("Configuration revision {} saved by another node, invalidating local configuration", revision);
+				listeners.forEach(listener -> listener.accept(revision));
+			}
+		}catch (Exception e) {
+			log.debug("Unable to poll the configuration revision: {}", e.getMessage());
+		}
+	}
+
+	private Optional<Long> readPersistedRevision() {
+		Long revision = activeObjects.executeInTransaction(new TransactionCallback<Long>() {
+
+			@Override
+			public Long doInTransaction() {
+				ConfigurationVariablesActiveObject[] result = activeObjects.find(ConfigurationVariablesActiveObject.class);
+				if(result.length == 0) return null;
+				return result[0].getRevision();
+			}
+		});
+		return Optional.ofNullable(revision);
+	}
+}
@@ -1,15 +1,18 @@
 package com.cloudflare.access.atlassian.base.config.impl;
 
-import static org.apache.commons.lang3.StringUtils.*;
-
-import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntSupplier;
 
 import javax.inject.Inject;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.env.Environment;
 import org.springframework.stereotype.Component;
 
 import com.atlassian.activeobjects.external.ActiveObjects;
@@ -17,31 +20,52 @@ import com.atlassian.event.api.EventPublisher;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
 import com.atlassian.sal.api.transaction.TransactionCallback;
 import com.cloudflare.access.atlassian.base.config.ConfigurationChangedEvent;
+import com.cloudflare.access.atlassian.base.config.ConfigurationInvalidationTransport;
 import com.cloudflare.access.atlassian.base.config.ConfigurationService;
 import com.cloudflare.access.atlassian.base.config.ConfigurationVariables;
 import com.cloudflare.access.atlassian.base.config.ConfigurationVariablesActiveObject;
 import com.cloudflare.access.atlassian.base.config.PersistentPluginConfiguration;
+import com.cloudflare.access.atlassian.base.support.PluginHttpClient;
+import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
 import com.cloudflare.access.atlassian.common.CertificateProvider;
 import com.cloudflare.access.atlassian.common.config.PluginConfiguration;
-import com.cloudflare.access.atlassian.common.http.SimpleHttp;
 
 @Component
-public class DefaultConfigurationService implements ConfigurationService{
+public class DefaultConfigurationService implements ConfigurationService, InitializingBean, DisposableBean{
 
 	private static final Logger log = LoggerFactory.getLogger(DefaultConfigurationService.class);
+	private static final int REVISION_RANDOM_BITS = 20;
 	private final ActiveObjects activeObjects;
 	private final EventPublisher eventPublisher;
+	private final ConfigurationInvalidationTransport invalidationTransport;
 	private final CertificateProvider certificateProvider;
-	private final Map<CacheKey,ConfigurationVariables> configCache;
+	private final String usernameClaim;
+	private final AtomicReference<Optional<PersistentPluginConfiguration>> currentConfiguration;
+	private volatile Long latestRevision;
 
 	@Inject
 	public DefaultConfigurationService(@ComponentImport ActiveObjects activeObjects,
-										@ComponentImport EventPublisher eventPublisher) {
+										@ComponentImport EventPublisher eventPublisher,
+										PluginHttpClient httpClient,
+										ConfigurationInvalidationTransport invalidationTransport,
+										Environment env) {
 		super();
 		this.activeObjects = activeObjects;
 		this.eventPublisher = eventPublisher;
-		this.certificateProvider = new CertificateProvider(new SimpleHttp());
-		this.configCache = new ConcurrentHashMap<>();
+		this.invalidationTransport = invalidationTransport;
+		this.certificateProvider = new CertificateProvider(httpClient, CertificateProvider.DEFAULT_REFRESH_INTERVAL, EnvironmentFlags.getCertsGracePeriod(env));
+		this.usernameClaim = EnvironmentFlags.getUsernameClaim(env);
+		this.currentConfiguration = new AtomicReference<>();
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.invalidationTransport.subscribe(this::onConfigurationSavedByAnotherNode);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.certificateProvider.close();
 	}
 
 	@Override
@@ -52,23 +76,84 @@ public class DefaultConfigurationService implements ConfigurationService{
 		ao.setTokenAudience(configVariables.getTokenAudience());
 		ao.setAuthDomain(configVariables.getAuthDomain());
 		ao.setAllowedEmailDomain(configVariables.getAllowedEmailDomain());
+		ao.setBypassPaths(configVariables.getBypassPaths());
+		long revision = newRevision(ao.getRevision());
+		ao.setRevision(revision);
 		ao.save();
 
+		this.latestRevision = revision;
+		this.currentConfiguration.set(Optional.of(new PersistentPluginConfiguration(configVariables, certificateProvider, usernameClaim)));
+		invalidationTransport.publish(revision);
+
 		log.info("Publishing configuration changed event...");
 		eventPublisher.publish(new ConfigurationChangedEvent(this));
+	}
+
+	/**
+	 * Revisions are unique values rather than a counter, as a read and increment is not atomic
+	 * across nodes and two concurrent saves would write the same revision, hiding the second save
+	 * from the other nodes. The save time is combined with random bits, and never repeats the
+	 * revision being replaced.
+	 */
+	static long newRevision(Long previousRevision) {
+		return newRevision(previousRevision, System.currentTimeMillis(), () -> ThreadLocalRandom.current().nextInt(1 << REVISION_RANDOM_BITS));
+	}
 
-		this.configCache.put(CacheKey.MAIN_CONFIG, configVariables);
+	static long newRevision(Long previousRevision, long saveTime, IntSupplier randomBits) {
+		long revision;
+		do {
+			revision = (saveTime << REVISION_RANDOM_BITS) | (randomBits.getAsInt() & ((1 << REVISION_RANDOM_BITS) - 1));
+		}while(previousRevision != null && revision == previousRevision);
+		return revision;
+	}
+
+	private void onConfigurationSavedByAnotherNode(long revision) {
+		log.debug("Configuration revision {} saved by another node, reloading it on next use", revision);
+		this.latestRevision = revision;
+		this.currentConfiguration.set(null);
+		eventPublisher.publish(new ConfigurationChangedEvent(this));
 	}
 
 	@Override
 	public Optional<ConfigurationVariables> loadConfigurationVariables() {
-		ConfigurationVariables configurationVariables = this.configCache.computeIfAbsent(CacheKey.MAIN_CONFIG, key -> {
-			return findFirst()
-					.map(ConfigurationVariables::new)
-					.orElse(null);
-		});
+		return getCurrentConfiguration().map(PersistentPluginConfiguration::getVariables);
+	}
+
+	/**
+	 * The configuration snapshot, or its absence when the plugin is not configured yet, is loaded
+	 * once and then only replaced on save. The load never overwrites a snapshot published by a
+	 * concurrent save.
+	 *
+	 * A load is only kept when it read the latest revision saved here or notified by the
+	 * transport. A load that read the database before another node saved is served to its caller
+	 * but not kept, even when the notification arrives while it runs.
+	 */
+	private Optional<PersistentPluginConfiguration> getCurrentConfiguration() {
+		Optional<PersistentPluginConfiguration> configuration = this.currentConfiguration.get();
+		if(configuration != null) {
+			return configuration;
+		}
+
+		Optional<ConfigurationVariablesActiveObject> persistedConfiguration = findFirst();
+		Long loadedRevision = persistedConfiguration.map(ConfigurationVariablesActiveObject::getRevision).orElse(null);
+		Optional<PersistentPluginConfiguration> loadedConfiguration = persistedConfiguration
+				.map(ConfigurationVariables::new)
+				.map(variables -> new PersistentPluginConfiguration(variables, certificateProvider, usernameClaim));
+		if(isLatestRevision(loadedRevision) && this.currentConfiguration.compareAndSet(null, loadedConfiguration)) {
+			if(isLatestRevision(loadedRevision) == false) {
+				log.debug("Configuration revision {} outdated while loading it, reloading it on next use", loadedRevision);
+				this.currentConfiguration.compareAndSet(loadedConfiguration, null);
+			}
+			return loadedConfiguration;
+		}
 
-		return Optional.ofNullable(configurationVariables);
+		configuration = this.currentConfiguration.get();
+		return configuration == null ? loadedConfiguration : configuration;
+	}
+
+	private boolean isLatestRevision(Long loadedRevision) {
+		Long latest = this.latestRevision;
+		return latest == null || Objects.equals(latest, loadedRevision);
 	}
 
 	private Optional<ConfigurationVariablesActiveObject> findFirst() {
@@ -87,26 +172,20 @@ public class DefaultConfigurationService implements ConfigurationService{
 
 	@Override
 	public Optional<PluginConfiguration> getPluginConfiguration() {
-		Optional<ConfigurationVariables> variables = loadConfigurationVariables();
-		if(variables.isPresent()) {
-			return Optional.of(new PersistentPluginConfiguration(variables.get(), certificateProvider));
-		}else {
-			return Optional.empty();
-		}
+		return getCurrentConfiguration().map(PluginConfiguration.class::cast);
 	}
 
 	@Override
-	public boolean emailDomainRequiresAtlassianAuthentication(String email) {
-		String emailDomain = defaultString(substringAfterLast(email, "@"), "");
-		Optional<String> allowedEmailDomain = getPluginConfiguration().flatMap(cfg -> cfg.getAllowedEmailDomain());
-		if(allowedEmailDomain.isPresent()) {
-			return emailDomain.equalsIgnoreCase(allowedEmailDomain.get()) == false;
-		}
-		//by default, don't require atlassian authentication.
-		return false;
+	public boolean requestPathBypassesAuthentication(String requestUri, String contextPath) {
+		return getCurrentConfiguration()
+				.map(configuration -> configuration.requestPathBypassesAuthentication(requestUri, contextPath))
+				.orElse(false);
 	}
 
-	private static enum CacheKey{
-		MAIN_CONFIG;
+	@Override
+	public boolean emailDomainRequiresAtlassianAuthentication(String email) {
+		return getCurrentConfiguration()
+				.map(configuration -> configuration.emailDomainRequiresAtlassianAuthentication(email))
+				.orElse(false);
 	}
 }
@@ -0,0 +1,30 @@
+package com.cloudflare.access.atlassian.base.config.validation;
+
+import static java.lang.annotation.ElementType.*;
+import static java.lang.annotation.RetentionPolicy.*;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.Retention;
+import java.lang.annotation.Target;
+
+import javax.validation.Constraint;
+import javax.validation.Payload;
+
+/**
+ * Validation annotation for a text of request path rules, as accepted by the RequestPathClassifier.
+ *
+ * Null or blank values are valid.
+ */
+@Documented
+@Constraint(validatedBy = PathRulesValidator.class)
+@Target({ FIELD, ANNOTATION_TYPE, PARAMETER })
+@Retention(RUNTIME)
+public @interface PathRules {
+
+	Class<?>[] groups() default {};
+
+	String message();
+
+	Class<? extends Payload>[] payload() default {};
+
+}
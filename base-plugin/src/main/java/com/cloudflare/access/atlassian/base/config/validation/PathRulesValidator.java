@@ -0,0 +1,19 @@
+package com.cloudflare.access.atlassian.base.config.validation;
+
+import javax.validation.ConstraintValidator;
+import javax.validation.ConstraintValidatorContext;
+
+import com.cloudflare.access.atlassian.common.RequestPathClassifier;
+
+public class PathRulesValidator implements ConstraintValidator<PathRules, String> {
+
+	@Override
+	public void initialize(PathRules constraintAnnotation) {
+	}
+
+	@Override
+	public boolean isValid(String value, ConstraintValidatorContext context) {
+		return RequestPathClassifier.isValid(value);
+	}
+
+}
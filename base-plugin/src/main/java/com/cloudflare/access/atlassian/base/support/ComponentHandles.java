@@ -0,0 +1,79 @@
+package com.cloudflare.access.atlassian.base.support;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.event.PluginEventListener;
+import com.atlassian.plugin.event.events.PluginDisabledEvent;
+import com.atlassian.plugin.event.events.PluginEnabledEvent;
+import com.atlassian.plugin.event.events.PluginUpgradedEvent;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.component.ComponentLocator;
+import com.cloudflare.access.atlassian.common.concurrent.ComponentHandle;
+
+/**
+ * Hands out one {@link ComponentHandle} per component type, resolved with the
+ * {@link ComponentLocator} on first use instead of on every request.
+ *
+ * All handles are reset when a plugin is enabled, disabled or upgraded, as the component
+ * behind a handle may be provided by the restarted plugin.
+ */
+@Component
+public class ComponentHandles implements InitializingBean, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(ComponentHandles.class);
+
+	private final EventPublisher eventPublisher;
+	private final ConcurrentMap<Class<?>, ComponentHandle<?>> handles = new ConcurrentHashMap<>();
+
+	@Autowired
+	public ComponentHandles(@ComponentImport EventPublisher eventPublisher) {
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.eventPublisher.register(this);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.eventPublisher.unregister(this);
+		resetAll();
+	}
+
+	@SuppressWarnings("unchecked")
+	public <T> ComponentHandle<T> handle(Class<T> componentType) {
+		return (ComponentHandle<T>) handles.computeIfAbsent(componentType,
+				type -> new ComponentHandle<>(type.getSimpleName(), () -> ComponentLocator.getComponent(componentType)));
+	}
+
+	@PluginEventListener
+	public void onEvent(PluginEnabledEvent pluginEnabledEvent) {
+		resetAll();
+	}
+
+	@PluginEventListener
+	public void onEvent(PluginUpgradedEvent pluginUpgradedEvent) {
+		resetAll();
+	}
+
+	@PluginEventListener
+	public void onEvent(PluginDisabledEvent pluginDisabledEvent) {
+		resetAll();
+	}
+
+	private void resetAll() {
+		log.debug("Resetting {} component handles", handles.size());
+		handles.values().forEach(ComponentHandle::reset);
+	}
+}
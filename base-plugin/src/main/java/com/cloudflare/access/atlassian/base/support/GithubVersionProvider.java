@@ -1,14 +1,13 @@
 package com.cloudflare.access.atlassian.base.support;
 
 import static org.apache.commons.lang3.StringUtils.defaultIfBlank;
+import static org.apache.commons.lang3.StringUtils.isNotBlank;
 
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.TimeUnit;
 
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.impl.client.CloseableHttpClient;
-import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import javax.inject.Inject;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
@@ -22,27 +21,47 @@ import com.google.common.base.Suppliers;
 public class GithubVersionProvider implements RemoteVersionProvider{
 
 	private static final Logger log = LoggerFactory.getLogger(GithubVersionProvider.class);
-	private Supplier<String> fetchResult;
+	private final PluginHttpClient http;
+	private Supplier<CompletableFuture<String>> fetchResult;
+	private volatile String lastFetchedVersion = "";
 
-	public GithubVersionProvider() {
+	@Inject
+	public GithubVersionProvider(PluginHttpClient http) {
+		this.http = http;
 		this.fetchResult = Suppliers.memoizeWithExpiration(this::fetchLatestReleasedVersion, 5, TimeUnit.MINUTES);
 	}
 
+	/**
+	 * Never waits for the GH API, while the latest release is being fetched the previously
+	 * fetched version is returned, or an empty string if none was fetched yet.
+	 */
 	@Override
 	public String getLatestReleaseVersion() {
+		return getLatestReleaseVersionAsync().getNow(lastFetchedVersion);
+	}
+
+	CompletableFuture<String> getLatestReleaseVersionAsync() {
 		return fetchResult.get();
 	}
 
-	private String fetchLatestReleasedVersion() {
+	private CompletableFuture<String> fetchLatestReleasedVersion() {
 		final String latestReleaseUrl = "https://api.github.com/repos/cloudflare/cloudflare-access-for-atlassian/releases/latest";
-		String json = "REQUEST_NOT_EXECUTED";
-		try(CloseableHttpClient http = HttpClients.createMinimal()){
-			log.debug("Trying to fetch latest release version from GH API: {}", latestReleaseUrl);
-			HttpGet request = new HttpGet(latestReleaseUrl);
-
-			CloseableHttpResponse response = http.execute(request);
+		log.debug("Trying to fetch latest release version from GH API: {}", latestReleaseUrl);
+		return http.getAsync(latestReleaseUrl)
+				.thenApply(this::parseVersion)
+				.exceptionally(e -> {
+					log.error("Plugin update check failed: " + e.getMessage(), e);
+					return "";
+				})
+				.whenComplete((version, failure) -> {
+					if(isNotBlank(version)) {
+						this.lastFetchedVersion = version;
+					}
+				});
+	}
 
-			json = EntityUtils.toString(response.getEntity());
+	private String parseVersion(String json) {
+		try {
 			log.debug("Received JSON: {}", json);
 
 			JsonNode root = new ObjectMapper().readTree(json);
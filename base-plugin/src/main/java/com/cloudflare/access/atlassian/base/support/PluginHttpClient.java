@@ -0,0 +1,18 @@
+package com.cloudflare.access.atlassian.base.support;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.stereotype.Component;
+
+import com.cloudflare.access.atlassian.common.http.SimpleHttp;
+
+/**
+ * The pooled HTTP client shared by all the plugin components, closed with the plugin.
+ */
+@Component
+public class PluginHttpClient extends SimpleHttp implements DisposableBean {
+
+	@Override
+	public void destroy() throws Exception {
+		close();
+	}
+}
@@ -10,44 +10,98 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.Plugin;
+import com.atlassian.plugin.PluginAccessor;
 import com.atlassian.plugin.event.PluginEventListener;
+import com.atlassian.plugin.event.events.PluginDisabledEvent;
 import com.atlassian.plugin.event.events.PluginEnabledEvent;
+import com.atlassian.plugin.event.events.PluginUpgradedEvent;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.cloudflare.access.atlassian.base.auth.CloudflarePluginDetails;
 
+/**
+ * Tracks the lifecycle of this plugin from the plugin framework events, so checking if the
+ * plugin is enabled is a single field read instead of a plugin framework lookup per request.
+ *
+ * Events from other plugins are ignored. As the plugin may be enabled before the listener is
+ * registered, the state is also seeded once from the plugin framework at startup.
+ */
 @Component
 public class PluginStateService implements InitializingBean, DisposableBean {
 
 	private static final Logger log = LoggerFactory.getLogger(PluginStateService.class);
 
+	public enum State {
+		STARTING,
+		ENABLED,
+		DISABLED
+	}
+
 	private final EventPublisher eventPublisher;
+	private final PluginAccessor pluginAccessor;
+	private final String pluginKey;
 
-	private boolean ready;
+	private volatile State state = State.STARTING;
 
 	@Autowired
-	public PluginStateService(@ComponentImport EventPublisher eventPublisher) {
+	public PluginStateService(@ComponentImport EventPublisher eventPublisher, @ComponentImport PluginAccessor pluginAccessor, CloudflarePluginDetails pluginDetails) {
 		Objects.requireNonNull(eventPublisher);
 		this.eventPublisher = eventPublisher;
+		this.pluginAccessor = Objects.requireNonNull(pluginAccessor);
+		this.pluginKey = pluginDetails.getPluginKey();
 	}
 
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		this.eventPublisher.register(this);
+		if(this.state == State.STARTING && pluginAccessor.isPluginEnabled(pluginKey)) {
+			transition(State.ENABLED, "already enabled");
+		}
 	}
 
 	@Override
 	public void destroy() throws Exception {
 		this.eventPublisher.unregister(this);
+		transition(State.DISABLED, "destroyed");
 	}
 
-
 	@PluginEventListener
 	public void onEvent(PluginEnabledEvent pluginEnabledEvent) {
-		log.info("Pugin enabled event received, setting READY flag!");
-		this.ready = true;
+		if(isThisPlugin(pluginEnabledEvent.getPlugin())) {
+			transition(State.ENABLED, "enabled");
+		}
+	}
+
+	@PluginEventListener
+	public void onEvent(PluginUpgradedEvent pluginUpgradedEvent) {
+		if(isThisPlugin(pluginUpgradedEvent.getPlugin())) {
+			transition(State.ENABLED, "upgraded");
+		}
+	}
+
+	@PluginEventListener
+	public void onEvent(PluginDisabledEvent pluginDisabledEvent) {
+		if(isThisPlugin(pluginDisabledEvent.getPlugin())) {
+			transition(State.DISABLED, "disabled");
+		}
+	}
+
+	public State getState() {
+		return state;
 	}
 
 	public boolean isReady() {
-		return ready;
+		return state == State.ENABLED;
+	}
+
+	private boolean isThisPlugin(Plugin plugin) {
+		return plugin != null && pluginKey.equals(plugin.getKey());
+	}
+
+	private void transition(State newState, String reason) {
+		State previousState = this.state;
+		this.state = newState;
+		log.info("Plugin {}, state changed from {} to {}", new Object[] {reason, previousState, newState});
 	}
 
 }
@@ -1,13 +1,60 @@
 package com.cloudflare.access.atlassian.base.utils;
 
+import java.time.Duration;
+
+import org.apache.commons.lang3.StringUtils;
 import org.springframework.core.env.Environment;
 
+import com.cloudflare.access.atlassian.common.CertificateProvider;
+
 public interface EnvironmentFlags {
 
 	static String FILTERS_DISABLED = "cloudflareAccessPlugin.filters.disabled";
+	static String CERTS_GRACE_PERIOD_MINUTES = "cloudflareAccessPlugin.certs.gracePeriodMinutes";
+	static String USERNAME_CLAIM = "cloudflareAccessPlugin.users.usernameClaim";
+	static String USERNAME_FROM_EMAIL = "cloudflareAccessPlugin.users.usernameFromEmail";
+	static String USERNAME_MATCH_TRUSTED = "cloudflareAccessPlugin.users.trustUsernameMatch";
+	static String ASYNC_LOGIN_RECORDING = "cloudflareAccessPlugin.logins.asyncRecording";
+	static String SCM_REQUEST_POLICY = "cloudflareAccessPlugin.scm.policy";
 
 
 	public static boolean isFiltersDisabled(Environment env) {
 		return "true".equalsIgnoreCase(env.getProperty(FILTERS_DISABLED, "false"));
 	}
+
+	/**
+	 * @return for how long the last downloaded signing keys are still used while the certs URL is failing
+	 */
+	public static Duration getCertsGracePeriod(Environment env) {
+		Long minutes = env.getProperty(CERTS_GRACE_PERIOD_MINUTES, Long.class, CertificateProvider.DEFAULT_GRACE_PERIOD.toMinutes());
+		return Duration.ofMinutes(Math.max(0, minutes));
+	}
+
+	/**
+	 * @return the token claim holding the Atlassian username, tried before searching the user by email, null if not set
+	 */
+	public static String getUsernameClaim(Environment env) {
+		return StringUtils.trimToNull(env.getProperty(USERNAME_CLAIM));
+	}
+
+	/**
+	 * @return true if the email local part should be tried as the Atlassian username before searching the user by email
+	 */
+	public static boolean isUsernameFromEmail(Environment env) {
+		return "true".equalsIgnoreCase(env.getProperty(USERNAME_FROM_EMAIL, "false"));
+	}
+
+	/**
+	 * @return true if a user found by username with the token email is accepted without checking that no other active user shares the email
+	 */
+	public static boolean isUsernameMatchTrusted(Environment env) {
+		return "true".equalsIgnoreCase(env.getProperty(USERNAME_MATCH_TRUSTED, "false"));
+	}
+
+	/**
+	 * @return true if the login audit entries should be written from a background worker instead of the request thread
+	 */
+	public static boolean isAsyncLoginRecording(Environment env) {
+		return "true".equalsIgnoreCase(env.getProperty(ASYNC_LOGIN_RECORDING, "false"));
+	}
 }
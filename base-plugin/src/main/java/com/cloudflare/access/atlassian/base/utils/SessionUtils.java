@@ -1,6 +1,8 @@
 package com.cloudflare.access.atlassian.base.utils;
 
+import java.time.Clock;
 import java.util.Objects;
+import java.util.Optional;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpSession;
@@ -9,11 +11,16 @@ import org.apache.commons.lang3.BooleanUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudflare.access.atlassian.common.VerifiedToken;
+
 public abstract class SessionUtils {
 	private static final Logger log = LoggerFactory.getLogger(SessionUtils.class);
 
 	private static final String ATLASSIAN_FLOW_FLAG = "ATLASSIAN_FLOW_FLAG";
 	private static final String CF_USER_EMAIL = "CF_USER_EMAIL";
+	private static final String CF_TOKEN_FINGERPRINT = "CF_TOKEN_FINGERPRINT";
+	private static final String CF_TOKEN_EXPIRES_AT = "CF_TOKEN_EXPIRES_AT";
+	private static final String CF_TOKEN_KEY_ID = "CF_TOKEN_KEY_ID";
 	private static final String CLOUDFLARE_UPDATE_NOTIFIED_FLAG = "CLOUDFLARE_UPDATE_NOTIFIED";
 
 	public static void clearSession(HttpServletRequest request) {
@@ -48,11 +55,41 @@ public abstract class SessionUtils {
 		return false;
 	}
 
-	public static void storeUserEmailInSession(HttpServletRequest request, String email) {
+	/**
+	 * Binds a verified token to the session, so the next requests carrying the same token
+	 * don't need to verify it again until it expires.
+	 */
+	public static void storeVerifiedTokenInSession(HttpServletRequest request, String fingerprint, VerifiedToken verifiedToken) {
 		HttpSession session = request.getSession(false);
 		if(session != null) {
-			session.setAttribute(CF_USER_EMAIL, email);
+			session.setAttribute(CF_USER_EMAIL, verifiedToken.getEmail());
+			session.setAttribute(CF_TOKEN_FINGERPRINT, fingerprint);
+			session.setAttribute(CF_TOKEN_EXPIRES_AT, verifiedToken.getExpiresAt());
+			session.setAttribute(CF_TOKEN_KEY_ID, verifiedToken.getKeyId());
+		}
+	}
+
+	/**
+	 * @param fingerprint the fingerprint of the token sent with the request
+	 * @return the token bound to the session, if it has the same fingerprint and has not expired
+	 */
+	public static Optional<VerifiedToken> getVerifiedTokenFromSession(HttpServletRequest request, String fingerprint, Clock clock) {
+		HttpSession session = request.getSession(false);
+		if(session == null || Objects.equals(session.getAttribute(CF_TOKEN_FINGERPRINT), fingerprint) == false) {
+			return Optional.empty();
+		}
+
+		Object email = session.getAttribute(CF_USER_EMAIL);
+		Object expiresAt = session.getAttribute(CF_TOKEN_EXPIRES_AT);
+		if((email instanceof String) == false || (expiresAt instanceof Long) == false) {
+			return Optional.empty();
+		}
+
+		VerifiedToken verifiedToken = new VerifiedToken((String) email, (Long) expiresAt, (String) session.getAttribute(CF_TOKEN_KEY_ID));
+		if(verifiedToken.isExpired(clock)) {
+			return Optional.empty();
 		}
+		return Optional.of(verifiedToken);
 	}
 
 	public static boolean isUpdateCheckAlreadyNotified(HttpServletRequest req) {
@@ -1,14 +1,21 @@
 package com.cloudflare.access.atlassian.base.auth;
 
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyZeroInteractions;
 import static org.mockito.Mockito.when;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Optional;
 
 import javax.servlet.FilterChain;
@@ -26,8 +33,9 @@ import org.mockito.runners.MockitoJUnitRunner;
 import org.springframework.core.env.Environment;
 
 import com.atlassian.crowd.embedded.api.User;
-import com.atlassian.plugin.PluginAccessor;
 import com.cloudflare.access.atlassian.base.config.ConfigurationService;
+import com.cloudflare.access.atlassian.base.config.ConfigurationVariables;
+import com.cloudflare.access.atlassian.base.config.PersistentPluginConfiguration;
 import com.cloudflare.access.atlassian.base.support.PluginStateService;
 import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
 import com.cloudflare.access.atlassian.common.config.PluginConfiguration;
@@ -37,10 +45,6 @@ import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthor
 @RunWith(MockitoJUnitRunner.class)
 public class CloudflareAccessServiceTest {
 
-	@Mock
-	private PluginAccessor pluginAcessor;
-	@Mock
-	private CloudflarePluginDetails pluginDetails;
 	@Mock
 	private ConfigurationService configurationService;
 	@Mock
@@ -59,7 +63,6 @@ public class CloudflareAccessServiceTest {
 
 	@Before
 	public void setupDefaults() {
-		when(pluginAcessor.isPluginEnabled(anyString())).thenReturn(true);
 		when(pluginStateService.isReady()).thenReturn(true);
 
 
@@ -67,10 +70,18 @@ public class CloudflareAccessServiceTest {
 
 		mockPluginConfiguration = mockPluginConfiguration(authContext);
 		when(configurationService.getPluginConfiguration()).thenReturn(Optional.of(mockPluginConfiguration));
+
+		PersistentPluginConfiguration defaultRulesConfiguration = new PersistentPluginConfiguration(new ConfigurationVariables("audience", "example.cloudflareaccess.com", null), null);
+		when(configurationService.requestPathBypassesAuthentication(anyString(), anyString())).thenAnswer(invocation ->
+			defaultRulesConfiguration.requestPathBypassesAuthentication((String) invocation.getArguments()[0], (String) invocation.getArguments()[1]));
+	}
+
+	private void verifyNotHandledAsSuccess() throws IOException, ServletException {
+		verify(successHandler, never()).handle(any(HttpServletRequest.class), any(HttpServletResponse.class), any(FilterChain.class), any(User.class));
 	}
 
 	private CloudflareAccessService newCloudflareAccessServiceInstance() {
-		return new CloudflareAccessService(pluginAcessor, pluginDetails, configurationService, userService, successHandler, failureHandler, env, pluginStateService);
+		return new CloudflareAccessService(configurationService, userService, successHandler, failureHandler, env, pluginStateService);
 	}
 
 	@Test
@@ -85,7 +96,7 @@ public class CloudflareAccessServiceTest {
 		FilterChain chain = mock(FilterChain.class);
 
 		User user = mock(User.class);
-		when(userService.getUser(authContext.getTokenOwnerEmail())).thenReturn(user);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenReturn(user);
 
 		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
 		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
@@ -106,20 +117,20 @@ public class CloudflareAccessServiceTest {
 		FilterChain chain = mock(FilterChain.class);
 
 		CloudflareAccessUnauthorizedException userRetrievalExcpetion = new CloudflareAccessUnauthorizedException("two users with same email");
-		when(userService.getUser(authContext.getTokenOwnerEmail())).thenThrow(userRetrievalExcpetion);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenThrow(userRetrievalExcpetion);
 
 		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
 		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
 
 		verify(failureHandler,times(1)).handle(httpRequest, httpResponse, userRetrievalExcpetion);
-		verifyZeroInteractions(successHandler);
+		verifyNotHandledAsSuccess();
 		verifyZeroInteractions(httpResponse);
 		verifyZeroInteractions(chain);
 	}
 
 	@Test
 	public void testNoTokenValidationIfPluginDisabled() throws IOException, ServletException {
-		when(pluginAcessor.isPluginEnabled(anyString())).thenReturn(false);
+		when(pluginStateService.isReady()).thenReturn(false);
 
 		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
 		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
@@ -152,6 +163,136 @@ public class CloudflareAccessServiceTest {
 		verifyZeroInteractions(httpResponse);
 	}
 
+	@Test
+	public void testNoTokenValidationForBypassedPath() throws IOException, ServletException {
+		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		FilterChain chain = mock(FilterChain.class);
+		when(httpRequest.getRequestURI()).thenReturn("/jira/s/d41d8cd98f00b204e9800998ecf8427e-CDN/_/download/batch/jira.webresources:icons/jira.webresources:icons");
+		when(httpRequest.getContextPath()).thenReturn("/jira");
+		when(httpRequest.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(authContext.getValidToken());
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+
+		verify(chain,times(1)).doFilter(httpRequest, httpResponse);
+		verifyZeroInteractions(successHandler);
+		verifyZeroInteractions(userService);
+		verifyZeroInteractions(failureHandler);
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(0L));
+	}
+
+	@Test
+	public void forwardedRequestShouldReuseAuthenticationOfFirstDispatch() throws IOException, ServletException {
+		HttpServletRequest httpRequest = mockRequestWithAttributes();
+		HttpSession httpSession = mock(HttpSession.class);
+		when(httpRequest.getSession()).thenReturn(httpSession);
+		when(httpRequest.getSession(anyBoolean())).thenReturn(httpSession);
+		when(httpRequest.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(authContext.getValidToken());
+
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		FilterChain chain = mock(FilterChain.class);
+
+		User user = mock(User.class);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenReturn(user);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+
+		assertThat(AuthenticationDecision.of(httpRequest), equalTo(AuthenticationDecision.AUTHENTICATED));
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(1L));
+		verify(userService, times(1)).getUser(authContext.getTokenOwnerEmail(), null);
+		verify(successHandler, times(1)).handle(httpRequest, httpResponse, chain, user);
+		verify(chain, times(1)).doFilter(httpRequest, httpResponse);
+		verifyZeroInteractions(failureHandler);
+	}
+
+	@Test
+	public void forwardedRequestShouldReuseRejectionOfFirstDispatch() throws IOException, ServletException {
+		HttpServletRequest httpRequest = mockRequestWithAttributes();
+		when(httpRequest.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(authContext.getValidToken());
+
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		FilterChain chain = mock(FilterChain.class);
+
+		CloudflareAccessUnauthorizedException userRetrievalExcpetion = new CloudflareAccessUnauthorizedException("user not found");
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenThrow(userRetrievalExcpetion);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+
+		assertThat(AuthenticationDecision.of(httpRequest), equalTo(AuthenticationDecision.REJECTED));
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(1L));
+		verify(failureHandler, times(1)).handle(httpRequest, httpResponse, userRetrievalExcpetion);
+		verify(chain, times(1)).doFilter(httpRequest, httpResponse);
+		verifyNotHandledAsSuccess();
+	}
+
+	@Test
+	public void shouldSkipUserLookupForTokenKnownBySuccessHandler() throws IOException, ServletException {
+		HttpServletRequest httpRequest = mockRequestWithAttributes();
+		when(httpRequest.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(authContext.getValidToken());
+
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		FilterChain chain = mock(FilterChain.class);
+		when(successHandler.handleKnownToken(any(HttpServletRequest.class), any(HttpServletResponse.class), any(FilterChain.class), any(CloudflareToken.class))).thenReturn(true);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		cloudflareAccessService.processAuthRequest(httpRequest, httpResponse, chain);
+
+		assertThat(AuthenticationDecision.of(httpRequest), equalTo(AuthenticationDecision.AUTHENTICATED));
+		verifyZeroInteractions(userService);
+		verifyNotHandledAsSuccess();
+		verifyZeroInteractions(failureHandler);
+	}
+
+	@Test
+	public void shouldSkipVerificationOfTokenBoundToSession() throws IOException, ServletException {
+		HttpSession httpSession = mockSessionWithAttributes();
+		User user = mock(User.class);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenReturn(user);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken());
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken());
+
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(1L));
+		verify(successHandler, times(1)).handle(any(HttpServletRequest.class), any(HttpServletResponse.class), any(FilterChain.class), any(User.class));
+		verifyZeroInteractions(failureHandler);
+	}
+
+	@Test
+	public void shouldVerifyTokenDifferentFromTheOneBoundToSession() throws IOException, ServletException {
+		HttpSession httpSession = mockSessionWithAttributes();
+		User user = mock(User.class);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenReturn(user);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken());
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken() + "tampered");
+
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(2L));
+		verify(failureHandler, times(1)).handle(any(HttpServletRequest.class), any(HttpServletResponse.class), any(Throwable.class));
+	}
+
+	@Test
+	public void shouldVerifyTokenBoundToSessionAfterItExpires() throws IOException, ServletException {
+		HttpSession httpSession = mockSessionWithAttributes();
+		User user = mock(User.class);
+		when(userService.getUser(authContext.getTokenOwnerEmail(), null)).thenReturn(user);
+
+		CloudflareAccessService cloudflareAccessService = newCloudflareAccessServiceInstance();
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken());
+		httpSession.setAttribute("CF_TOKEN_EXPIRES_AT", authContext.getClock().instant().getEpochSecond() - 1);
+		processRequestInSession(cloudflareAccessService, httpSession, authContext.getValidToken());
+
+		assertThat(cloudflareAccessService.getVerifiedTokenCacheStats().requestCount(), equalTo(2L));
+		assertThat(httpSession.getAttribute("CF_TOKEN_EXPIRES_AT"), equalTo(1526070640L));
+		verifyZeroInteractions(failureHandler);
+	}
+
 	@Test
 	public void testLogout() throws IOException, ServletException {
 		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
@@ -279,6 +420,32 @@ public class CloudflareAccessServiceTest {
 		verifyZeroInteractions(failureHandler);
 	}
 
+	private HttpServletRequest mockRequestWithAttributes() {
+		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
+		Map<String, Object> attributes = new HashMap<>();
+		doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+			.when(httpRequest).setAttribute(anyString(), any());
+		when(httpRequest.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArguments()[0]));
+		return httpRequest;
+	}
+
+	private HttpSession mockSessionWithAttributes() {
+		HttpSession httpSession = mock(HttpSession.class);
+		Map<String, Object> attributes = new HashMap<>();
+		doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+			.when(httpSession).setAttribute(anyString(), any());
+		when(httpSession.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArguments()[0]));
+		return httpSession;
+	}
+
+	private void processRequestInSession(CloudflareAccessService cloudflareAccessService, HttpSession httpSession, String token) throws IOException, ServletException {
+		HttpServletRequest httpRequest = mockRequestWithAttributes();
+		when(httpRequest.getSession()).thenReturn(httpSession);
+		when(httpRequest.getSession(anyBoolean())).thenReturn(httpSession);
+		when(httpRequest.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(token);
+		cloudflareAccessService.processAuthRequest(httpRequest, mock(HttpServletResponse.class), mock(FilterChain.class));
+	}
+
 	private Cookie newCookie(String name, String value, int maxAge) {
 		Cookie cookie = new Cookie(name, value);
 		cookie.setMaxAge(maxAge);
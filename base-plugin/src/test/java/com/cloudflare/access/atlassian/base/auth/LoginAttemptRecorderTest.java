@@ -0,0 +1,102 @@
+package com.cloudflare.access.atlassian.base.auth;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+import com.cloudflare.access.atlassian.base.auth.LoginAttemptRecorder.LoginAttempt;
+
+public class LoginAttemptRecorderTest {
+
+	private static final Clock CLOCK = Clock.fixed(Instant.parse("2020-01-01T10:00:00Z"), ZoneOffset.UTC);
+
+	private final List<String> audited = Collections.synchronizedList(new ArrayList<>());
+
+	@Test
+	public void shouldRecordAndAuditOnRequestThreadByDefault() throws Exception {
+		LoginAttemptRecorder recorder = newRecorder(false, 10, this::audit);
+		HttpServletRequest request = mockRequest();
+		List<HttpServletRequest> recordedRequests = new ArrayList<>();
+
+		recorder.record(request, "john", (recordedRequest, username) -> recordedRequests.add(recordedRequest));
+
+		assertThat(recordedRequests, contains(sameInstance(request)));
+		assertThat(audited, contains("john@10.0.0.1@2020-01-01T10:00:00Z"));
+	}
+
+	@Test
+	public void shouldCallProductOnRequestThreadWhenAsync() throws Exception {
+		LoginAttemptRecorder recorder = newRecorder(true, 10, this::audit);
+		HttpServletRequest request = mockRequest();
+		Thread requestThread = Thread.currentThread();
+		List<HttpServletRequest> recordedRequests = new ArrayList<>();
+		recorder.afterPropertiesSet();
+
+		recorder.record(request, "john", (recordedRequest, username) -> {
+			assertThat(Thread.currentThread(), sameInstance(requestThread));
+			recordedRequests.add(recordedRequest);
+		});
+
+		assertThat(recordedRequests, contains(sameInstance(request)));
+		recorder.destroy();
+	}
+
+	@Test
+	public void shouldAuditQueuedAttemptsInOrderOnShutdown() throws Exception {
+		LoginAttemptRecorder recorder = newRecorder(true, 10, this::audit);
+		recorder.afterPropertiesSet();
+
+		for(String username : new String[] {"john", "mary", "john"}) {
+			recorder.record(mockRequest(), username, (request, name) -> {});
+		}
+		recorder.destroy();
+
+		assertThat(audited, contains("john@10.0.0.1@2020-01-01T10:00:00Z", "mary@10.0.0.1@2020-01-01T10:00:00Z", "john@10.0.0.1@2020-01-01T10:00:00Z"));
+	}
+
+	@Test
+	public void shouldDropAndCountAuditEntriesWhenQueueIsFull() throws Exception {
+		LoginAttemptRecorder recorder = newRecorder(true, 1, this::audit);
+		List<String> recorded = new ArrayList<>();
+
+		recorder.record(mockRequest(), "john", (request, username) -> recorded.add(username));
+		recorder.record(mockRequest(), "mary", (request, username) -> recorded.add(username));
+		assertThat(recorded, contains("john", "mary"));
+		assertThat(audited.isEmpty(), equalTo(true));
+
+		recorder.afterPropertiesSet();
+		recorder.destroy();
+
+		assertThat(audited, contains("john@10.0.0.1@2020-01-01T10:00:00Z"));
+		assertThat(recorder.getDroppedCount(), equalTo(1L));
+	}
+
+	private LoginAttemptRecorder newRecorder(boolean async, int queueCapacity, Consumer<LoginAttempt> audit) {
+		return new LoginAttemptRecorder(async, queueCapacity, CLOCK, audit);
+	}
+
+	private void audit(LoginAttempt attempt) {
+		audited.add(attempt.getUsername() + "@" + attempt.getClientAddress() + "@" + attempt.getTime());
+	}
+
+	private HttpServletRequest mockRequest() {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getRemoteAddr()).thenReturn("10.0.0.1");
+		return request;
+	}
+}
@@ -0,0 +1,249 @@
+package com.cloudflare.access.atlassian.base.auth.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.runners.MockitoJUnitRunner;
+
+import com.atlassian.crowd.embedded.api.CrowdService;
+import com.atlassian.crowd.embedded.api.Query;
+import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.crowd.event.user.UserCreatedEvent;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.search.query.entity.UserQuery;
+import com.atlassian.event.api.EventPublisher;
+import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthorizedException;
+import com.google.common.base.Ticker;
+
+@RunWith(MockitoJUnitRunner.class)
+public class DefaultAtlassianUserServiceTest {
+
+	private static final String EMAIL = "john@example.com";
+
+	@Mock
+	private CrowdService crowdService;
+	@Mock
+	private EventPublisher eventPublisher;
+
+	private TestTicker ticker;
+	private DefaultAtlassianUserService service;
+
+	@Before
+	public void setup() {
+		ticker = new TestTicker();
+		service = new DefaultAtlassianUserService(crowdService, eventPublisher, false, false, ticker);
+	}
+
+	@Test
+	public void shouldCacheFoundUser() {
+		User user = mockUser("john", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+
+		assertThat(service.getUser(EMAIL), sameInstance(user));
+		assertThat(service.getUser("John@Example.com"), sameInstance(user));
+
+		verify(crowdService, times(1)).search(any(Query.class));
+		verify(crowdService, never()).getUser(any(String.class));
+		assertThat(service.getUserCacheStats().hitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldRevalidateCachedUserOncePerInterval() {
+		User user = mockUser("john", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+		when(crowdService.getUser("john")).thenReturn(user);
+		service.getUser(EMAIL);
+
+		ticker.advance(2, TimeUnit.MINUTES);
+		for(int i = 0; i < 10; i++) {
+			assertThat(service.getUser(EMAIL), sameInstance(user));
+		}
+		verify(crowdService, times(1)).getUser("john");
+
+		ticker.advance(2, TimeUnit.MINUTES);
+		service.getUser(EMAIL);
+		verify(crowdService, times(2)).getUser("john");
+		verify(crowdService, times(1)).search(any(Query.class));
+	}
+
+	@Test
+	public void shouldCacheUnknownEmailForShorterTime() {
+		doReturn(Collections.emptyList()).when(crowdService).search(any(Query.class));
+
+		assertUserNotFound(EMAIL);
+		assertUserNotFound(EMAIL);
+		verify(crowdService, times(1)).search(any(Query.class));
+
+		ticker.advance(2, TimeUnit.MINUTES);
+		assertUserNotFound(EMAIL);
+		verify(crowdService, times(2)).search(any(Query.class));
+		assertThat(service.getUnknownEmailCacheStats().hitCount(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldInvalidateUnknownEmailWhenUserIsCreated() {
+		doReturn(Collections.emptyList()).when(crowdService).search(any(Query.class));
+		assertUserNotFound(EMAIL);
+
+		User user = mockUser("john", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+		UserCreatedEvent event = mock(UserCreatedEvent.class);
+		when(event.getUser()).thenReturn(user);
+		service.onUserCreated(event);
+
+		assertThat(service.getUser(EMAIL), sameInstance(user));
+	}
+
+	@Test
+	public void shouldInvalidateUserWhenDeleted() {
+		User user = mockUser("john", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+		service.getUser(EMAIL);
+
+		UserDeletedEvent event = mock(UserDeletedEvent.class);
+		when(event.getUsername()).thenReturn("john");
+		service.onUserDeleted(event);
+		doReturn(Collections.emptyList()).when(crowdService).search(any(Query.class));
+
+		assertUserNotFound(EMAIL);
+	}
+
+	@Test
+	public void shouldNotTrustCachedUserDeactivatedWithoutEvent() {
+		User user = mockUser("john", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+		service.getUser(EMAIL);
+
+		User deactivatedUser = mockUser("john", EMAIL);
+		when(deactivatedUser.isActive()).thenReturn(false);
+		when(crowdService.getUser("john")).thenReturn(deactivatedUser);
+		doReturn(Collections.emptyList()).when(crowdService).search(any(Query.class));
+		ticker.advance(2, TimeUnit.MINUTES);
+
+		assertUserNotFound(EMAIL);
+		verify(crowdService, times(2)).search(any(Query.class));
+	}
+
+	@Test
+	public void shouldStopEmailSearchAtSecondMatch() {
+		doReturn(Arrays.asList(mockUser("john", EMAIL), mockUser("john.doe", EMAIL))).when(crowdService).search(any(Query.class));
+
+		try {
+			service.getUser(EMAIL);
+			fail("Email matching more than one user should be rejected");
+		}catch (CloudflareAccessUnauthorizedException e) {
+			assertThat(e.getMessage().contains("more than one user"), equalTo(true));
+		}
+
+		ArgumentCaptor<UserQuery> query = ArgumentCaptor.forClass(UserQuery.class);
+		verify(crowdService).search(query.capture());
+		assertThat(query.getValue().getMaxResults(), equalTo(2));
+	}
+
+	@Test
+	public void shouldFindUserByUsernameClaimWhenOnlyUserWithEmail() {
+		User user = mockUser("jdoe", EMAIL);
+		when(crowdService.getUser("jdoe")).thenReturn(user);
+		doReturn(Arrays.asList(mockUser("jdoe", EMAIL))).when(crowdService).search(any(Query.class));
+
+		assertThat(service.getUser(EMAIL, "jdoe"), sameInstance(user));
+
+		ArgumentCaptor<UserQuery> query = ArgumentCaptor.forClass(UserQuery.class);
+		verify(crowdService).search(query.capture());
+		assertThat(query.getValue().getMaxResults(), equalTo(2));
+	}
+
+	@Test
+	public void shouldRejectUsernameMatchWhenEmailIsShared() {
+		User user = mockUser("jdoe", EMAIL);
+		when(crowdService.getUser("jdoe")).thenReturn(user);
+		doReturn(Arrays.asList(user, mockUser("john", EMAIL))).when(crowdService).search(any(Query.class));
+
+		try {
+			service.getUser(EMAIL, "jdoe");
+			fail("Username match with an email shared by another user should be rejected");
+		}catch (CloudflareAccessUnauthorizedException e) {
+			assertThat(e.getMessage().contains("more than one user"), equalTo(true));
+		}
+	}
+
+	@Test
+	public void shouldFindUserByUsernameClaimWithoutSearchingWhenTrusted() {
+		service = new DefaultAtlassianUserService(crowdService, eventPublisher, false, true, ticker);
+		User user = mockUser("jdoe", EMAIL);
+		when(crowdService.getUser("jdoe")).thenReturn(user);
+
+		assertThat(service.getUser(EMAIL, "jdoe"), sameInstance(user));
+		verify(crowdService, never()).search(any(Query.class));
+	}
+
+	@Test
+	public void shouldFindUserByEmailLocalPartWhenEnabled() {
+		service = new DefaultAtlassianUserService(crowdService, eventPublisher, true, false, ticker);
+		User user = mockUser("john", EMAIL);
+		when(crowdService.getUser("john")).thenReturn(user);
+		doReturn(Arrays.asList(mockUser("john", EMAIL))).when(crowdService).search(any(Query.class));
+
+		assertThat(service.getUser(EMAIL), sameInstance(user));
+	}
+
+	@Test
+	public void shouldSearchByEmailWhenUsernameHasAnotherEmail() {
+		service = new DefaultAtlassianUserService(crowdService, eventPublisher, true, false, ticker);
+		User otherJohn = mockUser("john", "john@another.com");
+		when(crowdService.getUser("john")).thenReturn(otherJohn);
+		User user = mockUser("john.example", EMAIL);
+		doReturn(Arrays.asList(user)).when(crowdService).search(any(Query.class));
+
+		assertThat(service.getUser(EMAIL), sameInstance(user));
+	}
+
+	private void assertUserNotFound(String email) {
+		try {
+			service.getUser(email);
+			fail("User should not be found");
+		}catch (CloudflareAccessUnauthorizedException e) {
+			assertThat(e.getMessage().contains(email), equalTo(true));
+		}
+	}
+
+	private User mockUser(String name, String email) {
+		User user = mock(User.class);
+		when(user.getName()).thenReturn(name);
+		when(user.getEmailAddress()).thenReturn(email);
+		when(user.isActive()).thenReturn(true);
+		return user;
+	}
+
+	private static class TestTicker extends Ticker {
+		private final AtomicLong nanos = new AtomicLong();
+
+		@Override
+		public long read() {
+			return nanos.get();
+		}
+
+		void advance(long duration, TimeUnit unit) {
+			nanos.addAndGet(unit.toNanos(duration));
+		}
+	}
+}
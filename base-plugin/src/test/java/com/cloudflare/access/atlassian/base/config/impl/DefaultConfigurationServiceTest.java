@@ -0,0 +1,152 @@
+package com.cloudflare.access.atlassian.base.config.impl;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.core.env.Environment;
+
+import com.atlassian.activeobjects.external.ActiveObjects;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.sal.api.transaction.TransactionCallback;
+import com.cloudflare.access.atlassian.base.config.ConfigurationInvalidationTransport;
+import com.cloudflare.access.atlassian.base.config.ConfigurationVariables;
+import com.cloudflare.access.atlassian.base.config.ConfigurationVariablesActiveObject;
+import com.cloudflare.access.atlassian.base.support.PluginHttpClient;
+
+public class DefaultConfigurationServiceTest {
+
+	private ActiveObjects activeObjects;
+	private ConfigurationVariablesActiveObject persistedConfig;
+	private AtomicReference<Long> persistedRevision;
+	private InProcessInvalidationTransport cluster;
+
+	@Before
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public void setupActiveObjects() {
+		activeObjects = mock(ActiveObjects.class);
+		persistedConfig = mock(ConfigurationVariablesActiveObject.class);
+		when(persistedConfig.getTokenAudience()).thenReturn("audience");
+		when(persistedConfig.getAuthDomain()).thenReturn("first.cloudflareaccess.com");
+		persistedRevision = new AtomicReference<>();
+		doAnswer(invocation -> {
+			persistedRevision.set((Long) invocation.getArguments()[0]);
+			return null;
+		}).when(persistedConfig).setRevision(anyLong());
+		when(persistedConfig.getRevision()).thenAnswer(invocation -> persistedRevision.get());
+		when(activeObjects.find(ConfigurationVariablesActiveObject.class)).thenReturn(new ConfigurationVariablesActiveObject[] {persistedConfig});
+		when(activeObjects.executeInTransaction(any(TransactionCallback.class))).thenAnswer(new Answer<Object>() {
+			@Override
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				return ((TransactionCallback) invocation.getArguments()[0]).doInTransaction();
+			}
+		});
+		cluster = new InProcessInvalidationTransport();
+	}
+
+	@Test
+	public void shouldNotQueryTheDatabaseAgainWhenNotConfigured() {
+		when(activeObjects.find(ConfigurationVariablesActiveObject.class)).thenReturn(new ConfigurationVariablesActiveObject[0]);
+		DefaultConfigurationService service = newNode();
+
+		assertThat(service.getPluginConfiguration().isPresent(), equalTo(false));
+		assertThat(service.getPluginConfiguration().isPresent(), equalTo(false));
+
+		verify(activeObjects, times(1)).find(ConfigurationVariablesActiveObject.class);
+	}
+
+	@Test
+	public void shouldReloadConfigurationSavedByAnotherNode() {
+		DefaultConfigurationService firstNode = newNode();
+		DefaultConfigurationService secondNode = newNode();
+		assertThat(secondNode.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://first.cloudflareaccess.com"));
+
+		when(persistedConfig.getAuthDomain()).thenReturn("second.cloudflareaccess.com");
+		firstNode.save(new ConfigurationVariables("audience", "second.cloudflareaccess.com", null));
+
+		assertThat(secondNode.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://second.cloudflareaccess.com"));
+		assertThat(secondNode.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://second.cloudflareaccess.com"));
+		verify(persistedConfig).setRevision(anyLong());
+		verify(activeObjects, times(3)).find(ConfigurationVariablesActiveObject.class);
+	}
+
+	@Test
+	public void shouldNotKeepConfigurationLoadedBeforeAnotherNodeSaved() {
+		ConfigurationVariablesActiveObject staleConfig = mockPersistedConfig("first.cloudflareaccess.com", 1L);
+		ConfigurationVariablesActiveObject savedConfig = mockPersistedConfig("second.cloudflareaccess.com", 2L);
+		DefaultConfigurationService node = newNode();
+		ConfigurationInvalidationTransport otherNode = cluster.newNode();
+		AtomicBoolean savedDuringLoad = new AtomicBoolean();
+		when(activeObjects.find(ConfigurationVariablesActiveObject.class)).thenAnswer(invocation -> {
+			if(savedDuringLoad.compareAndSet(false, true)) {
+				//The other node saves after this load read the database
+				otherNode.publish(2L);
+				return new ConfigurationVariablesActiveObject[] {staleConfig};
+			}
+			return new ConfigurationVariablesActiveObject[] {savedConfig};
+		});
+
+		assertThat(node.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://first.cloudflareaccess.com"));
+		assertThat(node.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://second.cloudflareaccess.com"));
+		assertThat(node.getPluginConfiguration().get().getAuthenticationContext().getIssuer(), equalTo("https://second.cloudflareaccess.com"));
+		verify(activeObjects, times(2)).find(ConfigurationVariablesActiveObject.class);
+	}
+
+	@Test
+	public void newRevisionShouldCombineSaveTimeWithRandomBits() {
+		long saveTime = 1577872800000L;
+
+		long revision = DefaultConfigurationService.newRevision(null, saveTime, () -> 0xABCDE);
+
+		assertThat(revision >>> 20, equalTo(saveTime));
+		assertThat(revision & 0xFFFFF, equalTo(0xABCDEL));
+	}
+
+	@Test
+	public void newRevisionShouldNeverRepeatTheReplacedRevision() {
+		long saveTime = 1577872800000L;
+		Iterator<Integer> randomBits = Arrays.asList(5, 5, 6).iterator();
+		long replacedRevision = (saveTime << 20) | 5;
+
+		long revision = DefaultConfigurationService.newRevision(replacedRevision, saveTime, randomBits::next);
+
+		assertThat(revision, equalTo((saveTime << 20) | 6));
+	}
+
+	private ConfigurationVariablesActiveObject mockPersistedConfig(String authDomain, Long revision) {
+		ConfigurationVariablesActiveObject config = mock(ConfigurationVariablesActiveObject.class);
+		when(config.getTokenAudience()).thenReturn("audience");
+		when(config.getAuthDomain()).thenReturn(authDomain);
+		when(config.getRevision()).thenReturn(revision);
+		return config;
+	}
+
+	private DefaultConfigurationService newNode() {
+		Environment env = mock(Environment.class);
+		when(env.getProperty(anyString(), eq(Long.class), any(Long.class))).thenReturn(60L);
+		DefaultConfigurationService service = new DefaultConfigurationService(activeObjects, mock(EventPublisher.class), mock(PluginHttpClient.class), cluster.newNode(), env);
+		try {
+			service.afterPropertiesSet();
+		}catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+		return service;
+	}
+}
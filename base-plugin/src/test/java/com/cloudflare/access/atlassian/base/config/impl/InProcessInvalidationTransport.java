@@ -0,0 +1,39 @@
+package com.cloudflare.access.atlassian.base.config.impl;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.LongConsumer;
+
+import com.cloudflare.access.atlassian.base.config.ConfigurationInvalidationTransport;
+
+/**
+ * Stand-in for the cluster transport where every "node" lives in the same JVM: each node gets
+ * its own transport from {@link #newNode()} and receives the revisions published by the others.
+ */
+public class InProcessInvalidationTransport {
+
+	private final List<Node> nodes = new CopyOnWriteArrayList<>();
+
+	public ConfigurationInvalidationTransport newNode() {
+		Node node = new Node();
+		nodes.add(node);
+		return node;
+	}
+
+	private class Node implements ConfigurationInvalidationTransport {
+
+		private final List<LongConsumer> listeners = new CopyOnWriteArrayList<>();
+
+		@Override
+		public void publish(long revision) {
+			nodes.stream()
+				.filter(node -> node != this)
+				.forEach(node -> node.listeners.forEach(listener -> listener.accept(revision)));
+		}
+
+		@Override
+		public void subscribe(LongConsumer listener) {
+			listeners.add(listener);
+		}
+	}
+}
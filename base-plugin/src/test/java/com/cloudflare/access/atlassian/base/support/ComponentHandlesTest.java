@@ -0,0 +1,122 @@
+package com.cloudflare.access.atlassian.base.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Mockito.mock;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.event.events.PluginEnabledEvent;
+import com.atlassian.sal.api.component.ComponentLocator;
+import com.cloudflare.access.atlassian.common.concurrent.ComponentHandle;
+
+/**
+ * Compares the lookups and time per login of resolving a component with {@link ComponentLocator}
+ * on every login, as the handlers did, against a handle from {@link ComponentHandles}, both going
+ * through the same registry stand-in scanning its registered services like the plugin framework does.
+ */
+public class ComponentHandlesTest {
+
+	private static final Logger log = LoggerFactory.getLogger(ComponentHandlesTest.class);
+
+	private static final int LOGINS = 20000;
+	private static final int REGISTERED_SERVICES = 500;
+
+	private RegistryLocator registry;
+	private ComponentHandles componentHandles;
+
+	@Before
+	public void setup() {
+		registry = new RegistryLocator(REGISTERED_SERVICES);
+		ComponentLocator.setComponentLocator(registry);
+		componentHandles = new ComponentHandles(mock(EventPublisher.class));
+	}
+
+	@After
+	public void cleanup() {
+		ComponentLocator.setComponentLocator(null);
+	}
+
+	@Test
+	public void handleShouldLookUpOnceInsteadOfOncePerLogin() {
+		ComponentHandle<LoginService> handle = componentHandles.handle(LoginService.class);
+
+		long lookupNanos = timeLogins(() -> ComponentLocator.getComponent(LoginService.class));
+		assertEquals(LOGINS, registry.lookups.getAndSet(0));
+
+		long handleNanos = timeLogins(handle);
+		assertEquals(1, registry.lookups.get());
+
+		log.info("{} logins: {} ns per login with a lookup each, {} ns per login with a handle",
+				new Object[]{LOGINS, lookupNanos / LOGINS, handleNanos / LOGINS});
+	}
+
+	@Test
+	public void handleShouldLookUpAgainAfterPluginRestart() {
+		ComponentHandle<LoginService> handle = componentHandles.handle(LoginService.class);
+		handle.get();
+
+		componentHandles.onEvent(mock(PluginEnabledEvent.class));
+		timeLogins(handle);
+
+		assertEquals(2, registry.lookups.get());
+		assertSame(handle, componentHandles.handle(LoginService.class));
+	}
+
+	private long timeLogins(Supplier<LoginService> loginService) {
+		long start = System.nanoTime();
+		for(int i = 0; i < LOGINS; i++) {
+			loginService.get().onLogin("user" + i);
+		}
+		return System.nanoTime() - start;
+	}
+
+	public interface LoginService {
+		void onLogin(String username);
+	}
+
+	private static class RegistryLocator extends ComponentLocator {
+
+		private final List<Object> services = new ArrayList<>();
+		private final AtomicInteger lookups = new AtomicInteger();
+
+		RegistryLocator(int registeredServices) {
+			for(int i = 0; i < registeredServices; i++) {
+				services.add(new Object());
+			}
+			services.add((LoginService) username -> {});
+		}
+
+		@Override
+		protected <T> T getComponentInternal(Class<T> iface) {
+			lookups.incrementAndGet();
+			for(Object service : services) {
+				if(iface.isInstance(service)) {
+					return iface.cast(service);
+				}
+			}
+			return null;
+		}
+
+		@Override
+		protected <T> T getComponentInternal(Class<T> iface, String componentKey) {
+			return getComponentInternal(iface);
+		}
+
+		@Override
+		protected <T> Collection<T> getComponentsInternal(Class<T> iface) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
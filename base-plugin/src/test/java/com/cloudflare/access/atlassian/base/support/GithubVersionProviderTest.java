@@ -2,6 +2,8 @@ package com.cloudflare.access.atlassian.base.support;
 
 import static org.junit.Assert.assertTrue;
 
+import java.util.concurrent.TimeUnit;
+
 import org.apache.commons.lang3.StringUtils;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -10,8 +12,8 @@ public class GithubVersionProviderTest {
 
 	@Test
 	@Ignore("Ignored to build")
-	public void testThatCanRetrieveLatestReleaseInfo() {
-		String latestReleaseVersion = new GithubVersionProvider().getLatestReleaseVersion();
+	public void testThatCanRetrieveLatestReleaseInfo() throws Exception {
+		String latestReleaseVersion = new GithubVersionProvider(new PluginHttpClient()).getLatestReleaseVersionAsync().get(30, TimeUnit.SECONDS);
 		System.out.println("Retrieved latest version: " + latestReleaseVersion);
 		assertTrue(StringUtils.isNotBlank(latestReleaseVersion));
 		assertTrue(latestReleaseVersion.matches("[0-9]+\\.[0-9]+\\.[0-9]+$"));
@@ -0,0 +1,74 @@
+package com.cloudflare.access.atlassian.base.support;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.Plugin;
+import com.atlassian.plugin.PluginAccessor;
+import com.atlassian.plugin.event.events.PluginDisabledEvent;
+import com.atlassian.plugin.event.events.PluginEnabledEvent;
+import com.cloudflare.access.atlassian.base.auth.CloudflarePluginDetails;
+
+public class PluginStateServiceTest {
+
+	private static final String PLUGIN_KEY = "com.cloudflare.access.atlassian.test-plugin";
+
+	private EventPublisher eventPublisher;
+	private PluginAccessor pluginAccessor;
+	private PluginStateService stateService;
+
+	@Before
+	public void setup() {
+		eventPublisher = mock(EventPublisher.class);
+		pluginAccessor = mock(PluginAccessor.class);
+		CloudflarePluginDetails pluginDetails = mock(CloudflarePluginDetails.class);
+		when(pluginDetails.getPluginKey()).thenReturn(PLUGIN_KEY);
+		stateService = new PluginStateService(eventPublisher, pluginAccessor, pluginDetails);
+	}
+
+	@Test
+	public void shouldBecomeReadyWhenThisPluginIsEnabled() throws Exception {
+		stateService.afterPropertiesSet();
+		assertFalse(stateService.isReady());
+
+		stateService.onEvent(new PluginEnabledEvent(plugin("another-plugin")));
+		assertFalse(stateService.isReady());
+
+		stateService.onEvent(new PluginEnabledEvent(plugin(PLUGIN_KEY)));
+		assertTrue(stateService.isReady());
+		verify(eventPublisher).register(stateService);
+	}
+
+	@Test
+	public void shouldBeReadyWhenEnabledBeforeTheListenerWasRegistered() throws Exception {
+		when(pluginAccessor.isPluginEnabled(PLUGIN_KEY)).thenReturn(true);
+
+		stateService.afterPropertiesSet();
+
+		assertEquals(PluginStateService.State.ENABLED, stateService.getState());
+	}
+
+	@Test
+	public void shouldStopBeingReadyWhenDisabled() throws Exception {
+		when(pluginAccessor.isPluginEnabled(PLUGIN_KEY)).thenReturn(true);
+		stateService.afterPropertiesSet();
+
+		stateService.onEvent(new PluginDisabledEvent(plugin(PLUGIN_KEY)));
+
+		assertEquals(PluginStateService.State.DISABLED, stateService.getState());
+	}
+
+	private static Plugin plugin(String key) {
+		Plugin plugin = mock(Plugin.class);
+		when(plugin.getKey()).thenReturn(key);
+		return plugin;
+	}
+}
@@ -22,6 +22,7 @@ import com.atlassian.bitbucket.auth.HttpAuthenticationSuccessHandler;
 import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.bitbucket.user.UserService;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.cloudflare.access.atlassian.base.auth.CloudflareToken;
 
 @Named("cloudflareAccessAuthenticationHandler")
 public class BitbucketAccessAuthenticationHandler implements HttpAuthenticationHandler, HttpAuthenticationSuccessHandler {
@@ -29,10 +30,12 @@ public class BitbucketAccessAuthenticationHandler implements HttpAuthenticationH
 	private static final Logger log = LoggerFactory.getLogger(BitbucketAccessAuthenticationHandler.class);
 
 	private UserService userService;
+	private BitbucketIdentityCache identityCache;
 
 	@Inject
-	public BitbucketAccessAuthenticationHandler(@ComponentImport UserService userService) {
+	public BitbucketAccessAuthenticationHandler(@ComponentImport UserService userService, BitbucketIdentityCache identityCache) {
 		this.userService = userService;
+		this.identityCache = identityCache;
 	}
 
 	@Override
@@ -58,9 +61,23 @@ public class BitbucketAccessAuthenticationHandler implements HttpAuthenticationH
         	log.debug("No username in the request, opt-out auth");
         	return null;
         }
+
+        String fingerprint = (String) httpRequest.getAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE);
+        Long expiresAt = (Long) httpRequest.getAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE);
+        if(fingerprint != null) {
+        	ApplicationUser cachedUser = identityCache.get(fingerprint, userName);
+        	if(cachedUser != null) {
+        		log.debug("User {} already authenticated with this token", userName);
+        		return cachedUser;
+        	}
+        }
+
         log.debug("Loading user from user sevice...");
 		ApplicationUser user = userService.getUserByName(userName);
 		log.debug("User: " + user);
+		if(user != null && fingerprint != null && expiresAt != null) {
+			identityCache.put(fingerprint, expiresAt, user);
+		}
 		return user;
 	}
 
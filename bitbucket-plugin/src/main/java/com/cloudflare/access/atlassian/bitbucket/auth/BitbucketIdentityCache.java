@@ -0,0 +1,138 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import java.time.Clock;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserRenamedEvent;
+import com.atlassian.crowd.event.user.UserUpdatedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Keeps the Bitbucket user authenticated with each Cloudflare Access token, keyed by the token
+ * fingerprint, so requests without a session, like Git over HTTP, don't look the user up again,
+ * neither in the Crowd directory nor in the Bitbucket user service.
+ *
+ * Entries live until the token expires, capped by the same expiration as the Crowd lookups,
+ * and are invalidated by the Crowd user updated, renamed and deleted events, which include the
+ * user deactivation.
+ */
+@Named
+public class BitbucketIdentityCache implements InitializingBean, DisposableBean {
+
+	private static final Logger log = LoggerFactory.getLogger(BitbucketIdentityCache.class);
+
+	private static final long CACHE_SIZE = 10000;
+	private static final long MAX_TTL_MINUTES = 10;
+
+	private final EventPublisher eventPublisher;
+	private final Clock clock;
+	private final Cache<String, Identity> identities;
+
+	@Inject
+	public BitbucketIdentityCache(@ComponentImport EventPublisher eventPublisher) {
+		this.eventPublisher = Objects.requireNonNull(eventPublisher);
+		this.clock = Clock.systemUTC();
+		this.identities = CacheBuilder.newBuilder()
+				.maximumSize(CACHE_SIZE)
+				.expireAfterWrite(MAX_TTL_MINUTES, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.eventPublisher.register(this);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.eventPublisher.unregister(this);
+		identities.invalidateAll();
+	}
+
+	/**
+	 * @return the user cached for the token, null if not cached or expired
+	 */
+	public ApplicationUser get(String fingerprint) {
+		Identity identity = identities.getIfPresent(fingerprint);
+		if(identity == null) {
+			return null;
+		}
+		if(clock.instant().getEpochSecond() > identity.expiresAt) {
+			identities.invalidate(fingerprint);
+			return null;
+		}
+		return identity.user;
+	}
+
+	/**
+	 * @return the user cached for the token, null if not cached, expired or cached for another username
+	 */
+	public ApplicationUser get(String fingerprint, String username) {
+		ApplicationUser user = get(fingerprint);
+		if(user != null && user.getName().equalsIgnoreCase(username) == false) {
+			identities.invalidate(fingerprint);
+			return null;
+		}
+		return user;
+	}
+
+	public void put(String fingerprint, long expiresAt, ApplicationUser user) {
+		if(user.isActive()) {
+			identities.put(fingerprint, new Identity(user, expiresAt));
+		}
+	}
+
+	@EventListener
+	public void onUserUpdated(UserUpdatedEvent event) {
+		invalidateUser(event.getUser().getName());
+	}
+
+	@EventListener
+	public void onUserRenamed(UserRenamedEvent event) {
+		invalidateUser(event.getOldUsername());
+		invalidateUser(event.getUser().getName());
+	}
+
+	@EventListener
+	public void onUserDeleted(UserDeletedEvent event) {
+		invalidateUser(event.getUsername());
+	}
+
+	public CacheStats getStats() {
+		return identities.stats();
+	}
+
+	private void invalidateUser(String username) {
+		if(username != null) {
+			log.debug("Invalidating cached identities of user {}", username);
+			identities.asMap().values().removeIf(identity -> username.equalsIgnoreCase(identity.user.getName()));
+		}
+	}
+
+	private static class Identity {
+		private final ApplicationUser user;
+		private final long expiresAt;
+
+		Identity(ApplicationUser user, long expiresAt) {
+			this.user = user;
+			this.expiresAt = expiresAt;
+		}
+	}
+}
@@ -4,16 +4,20 @@ import static com.cloudflare.access.atlassian.bitbucket.auth.BitbucketPluginDeta
 
 import java.io.IOException;
 
+import javax.inject.Inject;
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
+import com.atlassian.bitbucket.user.ApplicationUser;
 import com.atlassian.crowd.embedded.api.User;
+import com.cloudflare.access.atlassian.base.auth.CloudflareToken;
 import com.cloudflare.access.atlassian.base.auth.SuccessfulAuthenticationRequestHandler;
 
 @Component
@@ -21,6 +25,13 @@ public class BitbucketSuccessfulAuthenticationRequestHandler implements Successf
 
 	private static final Logger log = LoggerFactory.getLogger(BitbucketSuccessfulAuthenticationRequestHandler.class);
 
+	private final BitbucketIdentityCache identityCache;
+
+	@Inject
+	public BitbucketSuccessfulAuthenticationRequestHandler(BitbucketIdentityCache identityCache) {
+		this.identityCache = identityCache;
+	}
+
 	@Override
 	public void handle(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain, User user) throws IOException, ServletException {
 		log.info("Handling successful authentication for user {}", user.getName());
@@ -28,4 +39,20 @@ public class BitbucketSuccessfulAuthenticationRequestHandler implements Successf
 		chain.doFilter(httpRequest, httpResponse);
 	}
 
+	/**
+	 * Continues with the Bitbucket user cached for the token, still having the token email,
+	 * without looking the user up by email again.
+	 */
+	@Override
+	public boolean handleKnownToken(HttpServletRequest httpRequest, HttpServletResponse httpResponse, FilterChain chain, CloudflareToken token) throws IOException, ServletException {
+		ApplicationUser user = identityCache.get(token.getFingerprint());
+		if(user == null || StringUtils.equalsIgnoreCase(user.getEmailAddress(), token.getUserEmail()) == false) {
+			return false;
+		}
+		log.debug("User {} already authenticated with this token", user.getName());
+		httpRequest.setAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE, user.getName());
+		chain.doFilter(httpRequest, httpResponse);
+		return true;
+	}
+
 }
@@ -13,19 +13,26 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudflare.access.atlassian.base.auth.AuthenticationDecision;
 import com.cloudflare.access.atlassian.base.auth.CloudflareAccessService;
 
 @Named("CloudflareAccessAuthenticationFilter")
 public class CloudflareAccessAuthenticationFilter implements Filter{
 
-	//private static final Logger log = LoggerFactory.getLogger(CloudflareAccessAuthenticationFilter.class);
+	private static final Logger log = LoggerFactory.getLogger(CloudflareAccessAuthenticationFilter.class);
 
 	@Inject
 	private CloudflareAccessService cloudflareAccess;
 
+	private ScmRequestGate scmRequestGate;
+
 	@Inject
-	public CloudflareAccessAuthenticationFilter(CloudflareAccessService cloudflareAccess) {
+	public CloudflareAccessAuthenticationFilter(CloudflareAccessService cloudflareAccess, ScmRequestGate scmRequestGate) {
 		this.cloudflareAccess = cloudflareAccess;
+		this.scmRequestGate = scmRequestGate;
 	}
 
 	@Override
@@ -44,9 +51,14 @@ public class CloudflareAccessAuthenticationFilter implements Filter{
 		final HttpServletResponse httpResponse = (HttpServletResponse) response;
 
 		try {
+			if(AuthenticationDecision.of(httpRequest) == null && scmRequestGate.skipTokenProcessing(httpRequest)) {
+				chain.doFilter(httpRequest, httpResponse);
+				return;
+			}
 			cloudflareAccess.processAuthRequest(httpRequest, httpResponse, chain);
+			scmRequestGate.onProcessed(httpRequest);
 		}catch (Throwable e) {
-			e.printStackTrace();
+			log.error("Error processing request " + httpRequest.getRequestURI() + ": " + e.getMessage(), e);
 			//chain.doFilter(httpRequest, httpResponse);
 		}
 	}
@@ -0,0 +1,46 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import javax.servlet.http.HttpServletRequest;
+
+/**
+ * Identifies Git smart HTTP and Git LFS requests from their path and headers only, without
+ * reading the body or any token.
+ *
+ * A request is classified by its path first: Git and Git LFS, under {@code info/lfs}, are only
+ * served below {@code /scm/}. The Git client headers then confirm it, so a browser following a
+ * clone URL is still handled like any other request.
+ */
+public final class ScmRequestClassifier {
+
+	private static final String SCM_PATH = "/scm/";
+	private static final String GIT_USER_AGENT = "git/";
+	private static final String LFS_USER_AGENT = "git-lfs/";
+	private static final String GIT_CONTENT_TYPE = "application/x-git-";
+	private static final String LFS_MEDIA_TYPE = "application/vnd.git-lfs";
+
+	private ScmRequestClassifier() {
+	}
+
+	public static boolean isScmRequest(HttpServletRequest request) {
+		return isScmPath(request.getRequestURI(), request.getContextPath()) && isGitClient(request);
+	}
+
+	static boolean isScmPath(String requestUri, String contextPath) {
+		if(requestUri == null) {
+			return false;
+		}
+		String path = contextPath == null ? "" : contextPath;
+		return requestUri.startsWith(path) && requestUri.startsWith(SCM_PATH, path.length());
+	}
+
+	private static boolean isGitClient(HttpServletRequest request) {
+		return startsWithIgnoreCase(request.getHeader("User-Agent"), GIT_USER_AGENT)
+				|| startsWithIgnoreCase(request.getHeader("User-Agent"), LFS_USER_AGENT)
+				|| startsWithIgnoreCase(request.getContentType(), GIT_CONTENT_TYPE)
+				|| startsWithIgnoreCase(request.getHeader("Accept"), LFS_MEDIA_TYPE);
+	}
+
+	private static boolean startsWithIgnoreCase(String value, String prefix) {
+		return value != null && value.regionMatches(true, 0, prefix, 0, prefix.length());
+	}
+}
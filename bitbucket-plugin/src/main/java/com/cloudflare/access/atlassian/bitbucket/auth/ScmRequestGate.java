@@ -0,0 +1,167 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import static com.cloudflare.access.atlassian.bitbucket.auth.BitbucketPluginDetails.AUTHENTICATED_USER_NAME_ATTRIBUTE;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Clock;
+import java.util.Base64;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Inject;
+import javax.inject.Named;
+import javax.servlet.http.HttpServletRequest;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import com.cloudflare.access.atlassian.base.auth.AuthenticationDecision;
+import com.cloudflare.access.atlassian.base.auth.CloudflareToken;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Applies the {@link ScmRequestPolicy} to Git and Git LFS requests before any token work.
+ *
+ * With {@link ScmRequestPolicy#VERIFY_ONCE_PER_TOKEN} the identity a token was authenticated
+ * with is remembered, keyed by a digest of the raw token, and replayed on the following SCM
+ * requests carrying the same token, so Bitbucket still authenticates their user. A verified token
+ * bypassed because the request carries its own Authorization header, like Git clients sending
+ * their credentials, is remembered as such and the following requests with the same token and an
+ * Authorization header are bypassed again. Only requests whose token was verified are remembered,
+ * for a short time and never past the token expiry.
+ */
+@Named
+public class ScmRequestGate {
+
+	private static final Logger log = LoggerFactory.getLogger(ScmRequestGate.class);
+
+	private static final long IDENTITY_CACHE_SIZE = 10000;
+	private static final long IDENTITY_TTL_SECONDS = 60;
+	private static final String AUTHORIZATION_HEADER = "Authorization";
+
+	private final ScmRequestPolicy policy;
+	private final Clock clock;
+	private final Cache<String, VerifiedIdentity> verifiedIdentities;
+
+	@Inject
+	public ScmRequestGate(Environment env) {
+		this(ScmRequestPolicy.fromEnvironment(env), Clock.systemUTC());
+	}
+
+	ScmRequestGate(ScmRequestPolicy policy, Clock clock) {
+		this.policy = policy;
+		this.clock = clock;
+		this.verifiedIdentities = CacheBuilder.newBuilder()
+				.maximumSize(IDENTITY_CACHE_SIZE)
+				.expireAfterWrite(IDENTITY_TTL_SECONDS, TimeUnit.SECONDS)
+				.build();
+		log.info("Handling SCM requests with policy {}", policy);
+	}
+
+	/**
+	 * Marks the request as bypassed, or as authenticated with the identity remembered for its
+	 * token, when the policy lets it go on without processing the token.
+	 *
+	 * @return true if the request was marked and can go on without processing its token
+	 */
+	public boolean skipTokenProcessing(HttpServletRequest request) {
+		if(policy == ScmRequestPolicy.VERIFY || ScmRequestClassifier.isScmRequest(request) == false) {
+			return false;
+		}
+		if(policy == ScmRequestPolicy.SKIP) {
+			AuthenticationDecision.BYPASSED.markOn(request);
+			return true;
+		}
+
+		String tokenKey = tokenKey(request);
+		VerifiedIdentity identity = tokenKey == null ? null : verifiedIdentities.getIfPresent(tokenKey);
+		if(identity == null) {
+			return false;
+		}
+		if(clock.instant().getEpochSecond() > identity.expiresAt) {
+			verifiedIdentities.invalidate(tokenKey);
+			return false;
+		}
+
+		if(identity.isBypass()) {
+			if(hasAuthorizationHeader(request) == false) {
+				return false;
+			}
+			log.debug("Token already verified for a request with an Authorization header, bypassing: {}", request.getRequestURI());
+			AuthenticationDecision.BYPASSED.markOn(request);
+			return true;
+		}
+
+		log.debug("Token already verified for user {}, replaying its identity: {}", identity.username, request.getRequestURI());
+		request.setAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE, identity.username);
+		request.setAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE, identity.fingerprint);
+		request.setAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE, identity.expiresAt);
+		AuthenticationDecision.AUTHENTICATED.markOn(request);
+		return true;
+	}
+
+	/**
+	 * Remembers the identity of a processed SCM request authenticated with its token, or that its
+	 * verified token was bypassed for the Authorization header of the request.
+	 */
+	public void onProcessed(HttpServletRequest request) {
+		if(policy != ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN || ScmRequestClassifier.isScmRequest(request) == false) {
+			return;
+		}
+
+		AuthenticationDecision decision = AuthenticationDecision.of(request);
+		Object username = request.getAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE);
+		Object fingerprint = request.getAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE);
+		Object expiresAt = request.getAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE);
+		String tokenKey = tokenKey(request);
+		if(fingerprint instanceof String == false || expiresAt instanceof Long == false || tokenKey == null) {
+			return;
+		}
+
+		if(decision == AuthenticationDecision.AUTHENTICATED && username instanceof String) {
+			verifiedIdentities.put(tokenKey, new VerifiedIdentity((String) username, (String) fingerprint, (Long) expiresAt));
+		}else if(decision == AuthenticationDecision.BYPASSED && hasAuthorizationHeader(request)) {
+			verifiedIdentities.put(tokenKey, new VerifiedIdentity(null, (String) fingerprint, (Long) expiresAt));
+		}
+	}
+
+	private static boolean hasAuthorizationHeader(HttpServletRequest request) {
+		return StringUtils.isNotBlank(request.getHeader(AUTHORIZATION_HEADER));
+	}
+
+	private static String tokenKey(HttpServletRequest request) {
+		String token = CloudflareToken.getJWT(request);
+		if(StringUtils.isBlank(token)) {
+			return null;
+		}
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(token.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(digest);
+		}catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 should be available in every JVM", e);
+		}
+	}
+
+	private static class VerifiedIdentity {
+		private final String username;
+		private final String fingerprint;
+		private final long expiresAt;
+
+		VerifiedIdentity(String username, String fingerprint, long expiresAt) {
+			this.username = username;
+			this.fingerprint = fingerprint;
+			this.expiresAt = expiresAt;
+		}
+
+		/**
+		 * @return true if the token was verified for a request bypassed for its Authorization header
+		 */
+		boolean isBypass() {
+			return username == null;
+		}
+	}
+}
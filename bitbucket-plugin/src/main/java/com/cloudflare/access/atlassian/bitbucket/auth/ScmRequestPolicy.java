@@ -0,0 +1,38 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import java.util.Locale;
+
+import org.apache.commons.lang3.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import com.cloudflare.access.atlassian.base.utils.EnvironmentFlags;
+
+/**
+ * How the Cloudflare Access token of Git and Git LFS requests is handled, set with
+ * {@link EnvironmentFlags#SCM_REQUEST_POLICY}.
+ */
+public enum ScmRequestPolicy {
+	/** Never verify the token, leaving the authentication to Bitbucket and the Cloudflare edge */
+	SKIP,
+	/** Verify each token once, then replay the identity it was authenticated with for a short time */
+	VERIFY_ONCE_PER_TOKEN,
+	/** Verify the token of every request, like any other request */
+	VERIFY;
+
+	private static final Logger log = LoggerFactory.getLogger(ScmRequestPolicy.class);
+
+	public static ScmRequestPolicy fromEnvironment(Environment env) {
+		String policy = StringUtils.trimToNull(env.getProperty(EnvironmentFlags.SCM_REQUEST_POLICY));
+		if(policy == null) {
+			return VERIFY;
+		}
+		try {
+			return valueOf(policy.toUpperCase(Locale.ROOT));
+		}catch (IllegalArgumentException e) {
+			log.warn("Unknown SCM request policy '{}', verifying every SCM request", policy);
+			return VERIFY;
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import static com.cloudflare.access.atlassian.bitbucket.auth.BitbucketPluginDetails.AUTHENTICATED_USER_NAME_ATTRIBUTE;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+
+import javax.servlet.FilterChain;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import com.atlassian.bitbucket.user.ApplicationUser;
+import com.atlassian.event.api.EventPublisher;
+import com.cloudflare.access.atlassian.base.auth.CloudflareToken;
+
+public class BitbucketSuccessfulAuthenticationRequestHandlerTest {
+
+	private static final String EMAIL = "john@example.com";
+	private static final long TOKEN_EXPIRES_AT = Instant.now().getEpochSecond() + 3600;
+
+	private BitbucketIdentityCache identityCache;
+	private BitbucketSuccessfulAuthenticationRequestHandler handler;
+	private HttpServletRequest request;
+	private HttpServletResponse response;
+	private FilterChain chain;
+
+	@Before
+	public void setup() {
+		identityCache = new BitbucketIdentityCache(mock(EventPublisher.class));
+		handler = new BitbucketSuccessfulAuthenticationRequestHandler(identityCache);
+		request = mock(HttpServletRequest.class);
+		response = mock(HttpServletResponse.class);
+		chain = mock(FilterChain.class);
+	}
+
+	@Test
+	public void shouldContinueWithTheUserCachedForTheToken() throws Exception {
+		identityCache.put("fingerprint", TOKEN_EXPIRES_AT, user("john", EMAIL));
+
+		assertTrue(handler.handleKnownToken(request, response, chain, token("fingerprint", EMAIL)));
+
+		verify(request).setAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE, "john");
+		verify(chain).doFilter(request, response);
+	}
+
+	@Test
+	public void shouldNotHandleUnknownToken() throws Exception {
+		identityCache.put("fingerprint", TOKEN_EXPIRES_AT, user("john", EMAIL));
+
+		assertFalse(handler.handleKnownToken(request, response, chain, token("another-fingerprint", EMAIL)));
+
+		verify(request, never()).setAttribute(anyString(), any());
+		verify(chain, never()).doFilter(request, response);
+	}
+
+	@Test
+	public void shouldNotHandleTokenWhenCachedUserHasAnotherEmail() throws Exception {
+		identityCache.put("fingerprint", TOKEN_EXPIRES_AT, user("john", "john@another.com"));
+
+		assertFalse(handler.handleKnownToken(request, response, chain, token("fingerprint", EMAIL)));
+
+		verify(chain, never()).doFilter(request, response);
+	}
+
+	private static CloudflareToken token(String fingerprint, String email) {
+		CloudflareToken token = mock(CloudflareToken.class);
+		when(token.getFingerprint()).thenReturn(fingerprint);
+		when(token.getUserEmail()).thenReturn(email);
+		return token;
+	}
+
+	private static ApplicationUser user(String name, String email) {
+		ApplicationUser user = mock(ApplicationUser.class);
+		when(user.getName()).thenReturn(name);
+		when(user.getEmailAddress()).thenReturn(email);
+		when(user.isActive()).thenReturn(true);
+		return user;
+	}
+}
@@ -0,0 +1,75 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.junit.Test;
+
+public class ScmRequestClassifierTest {
+
+	@Test
+	public void shouldClassifyGitRequestsUnderScmPath() {
+		HttpServletRequest infoRefs = request("/bitbucket", "/bitbucket/scm/proj/repo.git/info/refs");
+		when(infoRefs.getHeader("User-Agent")).thenReturn("git/2.30.1");
+		HttpServletRequest uploadPack = request("/bitbucket", "/bitbucket/scm/proj/repo.git/git-upload-pack");
+		when(uploadPack.getContentType()).thenReturn("application/x-git-upload-pack-request");
+
+		assertTrue(ScmRequestClassifier.isScmRequest(infoRefs));
+		assertTrue(ScmRequestClassifier.isScmRequest(uploadPack));
+	}
+
+	@Test
+	public void shouldClassifyGitLfsRequestsUnderScmPath() {
+		HttpServletRequest batch = request("", "/scm/proj/repo.git/info/lfs/objects/batch");
+		when(batch.getHeader("Accept")).thenReturn("application/vnd.git-lfs+json");
+		HttpServletRequest download = request("", "/scm/proj/repo.git/info/lfs/objects/0123456789abcdef");
+		when(download.getHeader("User-Agent")).thenReturn("git-lfs/2.13.2 (GitHub; linux amd64; go 1.15.6)");
+
+		assertTrue(ScmRequestClassifier.isScmRequest(batch));
+		assertTrue(ScmRequestClassifier.isScmRequest(download));
+	}
+
+	@Test
+	public void shouldNotClassifyGitHeadersOutsideScmPath() {
+		HttpServletRequest restRequest = request("", "/rest/api/1.0/projects");
+		when(restRequest.getHeader("User-Agent")).thenReturn("git/2.30.1");
+		HttpServletRequest lfsOutsideScm = request("", "/plugins/servlet/info/lfs/objects/batch");
+		when(lfsOutsideScm.getHeader("Accept")).thenReturn("application/vnd.git-lfs+json");
+		HttpServletRequest contentTypeOnly = request("", "/projects/PROJ");
+		when(contentTypeOnly.getContentType()).thenReturn("application/x-git-receive-pack-request");
+
+		assertFalse(ScmRequestClassifier.isScmRequest(restRequest));
+		assertFalse(ScmRequestClassifier.isScmRequest(lfsOutsideScm));
+		assertFalse(ScmRequestClassifier.isScmRequest(contentTypeOnly));
+	}
+
+	@Test
+	public void shouldNotClassifyBrowserRequestsUnderScmPath() {
+		HttpServletRequest browserRequest = request("", "/scm/proj/repo.git");
+		when(browserRequest.getHeader("User-Agent")).thenReturn("Mozilla/5.0 (X11; Linux x86_64)");
+		when(browserRequest.getHeader("Accept")).thenReturn("text/html");
+
+		assertFalse(ScmRequestClassifier.isScmRequest(browserRequest));
+	}
+
+	@Test
+	public void shouldMatchScmPathAfterContextPathOnly() {
+		assertTrue(ScmRequestClassifier.isScmPath("/bitbucket/scm/proj/repo.git/info/refs", "/bitbucket"));
+		assertTrue(ScmRequestClassifier.isScmPath("/scm/proj/repo.git/info/refs", null));
+		assertFalse(ScmRequestClassifier.isScmPath("/scm/proj/repo.git/info/refs", "/bitbucket"));
+		assertFalse(ScmRequestClassifier.isScmPath("/bitbucket/projects/scm/repos", "/bitbucket"));
+		assertFalse(ScmRequestClassifier.isScmPath("/bitbucket/projects/PROJ/repos/repo/info/lfs/objects", "/bitbucket"));
+		assertFalse(ScmRequestClassifier.isScmPath(null, "/bitbucket"));
+	}
+
+	private static HttpServletRequest request(String contextPath, String requestUri) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getContextPath()).thenReturn(contextPath);
+		when(request.getRequestURI()).thenReturn(requestUri);
+		return request;
+	}
+}
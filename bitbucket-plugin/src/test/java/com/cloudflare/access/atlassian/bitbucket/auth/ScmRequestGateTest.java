@@ -0,0 +1,171 @@
+package com.cloudflare.access.atlassian.bitbucket.auth;
+
+import static com.cloudflare.access.atlassian.bitbucket.auth.BitbucketPluginDetails.AUTHENTICATED_USER_NAME_ATTRIBUTE;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.FilterChain;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.junit.Test;
+
+import com.cloudflare.access.atlassian.base.auth.AuthenticationDecision;
+import com.cloudflare.access.atlassian.base.auth.CloudflareAccessService;
+import com.cloudflare.access.atlassian.base.auth.CloudflareToken;
+
+public class ScmRequestGateTest {
+
+	private static final Instant NOW = Instant.parse("2020-01-01T10:00:00Z");
+	private static final long TOKEN_EXPIRES_AT = NOW.getEpochSecond() + 3600;
+	private static final Clock CLOCK = Clock.fixed(NOW, ZoneOffset.UTC);
+
+	@Test
+	public void verifyPolicyShouldProcessEveryToken() {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY, CLOCK);
+		gate.onProcessed(authenticatedGitRequest("token", "john"));
+
+		HttpServletRequest request = gitRequest("token");
+		assertFalse(gate.skipTokenProcessing(request));
+		assertNull(AuthenticationDecision.of(request));
+	}
+
+	@Test
+	public void skipPolicyShouldBypassGitRequestsOnly() {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.SKIP, CLOCK);
+
+		HttpServletRequest gitRequest = gitRequest("token");
+		assertTrue(gate.skipTokenProcessing(gitRequest));
+		assertEquals(AuthenticationDecision.BYPASSED, AuthenticationDecision.of(gitRequest));
+
+		HttpServletRequest browserRequest = requestWithAttributes("/rest/api/1.0/projects", "token");
+		assertFalse(gate.skipTokenProcessing(browserRequest));
+		assertNull(AuthenticationDecision.of(browserRequest));
+	}
+
+	@Test
+	public void verifyOncePolicyShouldReplayTheIdentityOfAVerifiedToken() {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN, CLOCK);
+		HttpServletRequest firstRequest = gitRequest("token");
+		assertFalse(gate.skipTokenProcessing(firstRequest));
+		gate.onProcessed(authenticatedGitRequest("token", "john"));
+
+		HttpServletRequest nextRequest = gitRequest("token");
+		assertTrue(gate.skipTokenProcessing(nextRequest));
+		assertEquals(AuthenticationDecision.AUTHENTICATED, AuthenticationDecision.of(nextRequest));
+		assertEquals("john", nextRequest.getAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE));
+		assertEquals("fingerprint-of-token", nextRequest.getAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE));
+		assertEquals(TOKEN_EXPIRES_AT, nextRequest.getAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE));
+
+		assertFalse(gate.skipTokenProcessing(gitRequest("another token")));
+	}
+
+	@Test
+	public void verifyOncePolicyShouldOnlyRememberAuthenticatedRequests() {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN, CLOCK);
+		HttpServletRequest bypassedRequest = gitRequest("token");
+		AuthenticationDecision.BYPASSED.markOn(bypassedRequest);
+		gate.onProcessed(bypassedRequest);
+		HttpServletRequest rejectedRequest = gitRequest("token");
+		AuthenticationDecision.REJECTED.markOn(rejectedRequest);
+		gate.onProcessed(rejectedRequest);
+		HttpServletRequest sessionRequest = gitRequest("token");
+		AuthenticationDecision.AUTHENTICATED.markOn(sessionRequest);
+		gate.onProcessed(sessionRequest);
+
+		assertFalse(gate.skipTokenProcessing(gitRequest("token")));
+	}
+
+	@Test
+	public void verifyOncePolicyShouldNotReplayExpiredTokens() {
+		Clock afterExpiry = Clock.fixed(Instant.ofEpochSecond(TOKEN_EXPIRES_AT + 1), ZoneOffset.UTC);
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN, afterExpiry);
+		gate.onProcessed(authenticatedGitRequest("token", "john"));
+
+		assertFalse(gate.skipTokenProcessing(gitRequest("token")));
+	}
+
+	@Test
+	public void verifyOncePolicyShouldNotReplayForOtherRequests() {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN, CLOCK);
+		gate.onProcessed(authenticatedGitRequest("token", "john"));
+
+		assertFalse(gate.skipTokenProcessing(requestWithAttributes("/rest/api/1.0/projects", "token")));
+		assertFalse(gate.skipTokenProcessing(gitRequest(null)));
+	}
+
+	@Test
+	public void verifyOncePolicyShouldVerifyTokensOfAuthorizationHeaderRequestsOnce() throws Exception {
+		ScmRequestGate gate = new ScmRequestGate(ScmRequestPolicy.VERIFY_ONCE_PER_TOKEN, CLOCK);
+		CloudflareAccessService cloudflareAccess = mock(CloudflareAccessService.class);
+		AtomicInteger verifications = new AtomicInteger();
+		doAnswer(invocation -> {
+			// Verifies the token, then bypasses the request for its Authorization header
+			HttpServletRequest request = (HttpServletRequest) invocation.getArguments()[0];
+			verifications.incrementAndGet();
+			request.setAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE, "fingerprint-of-token");
+			request.setAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE, TOKEN_EXPIRES_AT);
+			AuthenticationDecision.BYPASSED.markOn(request);
+			((FilterChain) invocation.getArguments()[2]).doFilter(request, (ServletResponse) invocation.getArguments()[1]);
+			return null;
+		}).when(cloudflareAccess).processAuthRequest(any(HttpServletRequest.class), any(HttpServletResponse.class), any(FilterChain.class));
+		CloudflareAccessAuthenticationFilter filter = new CloudflareAccessAuthenticationFilter(cloudflareAccess, gate);
+		FilterChain chain = mock(FilterChain.class);
+
+		for(int i = 0; i < 2; i++) {
+			HttpServletRequest request = gitRequest("token");
+			when(request.getHeader("Authorization")).thenReturn("Basic am9objpzZWNyZXQ=");
+			filter.doFilter(request, mock(HttpServletResponse.class), chain);
+			assertEquals(AuthenticationDecision.BYPASSED, AuthenticationDecision.of(request));
+		}
+
+		assertEquals(1, verifications.get());
+		verify(chain, times(2)).doFilter(any(ServletRequest.class), any(ServletResponse.class));
+		assertFalse(gate.skipTokenProcessing(gitRequest("token")));
+	}
+
+	private static HttpServletRequest authenticatedGitRequest(String token, String username) {
+		HttpServletRequest request = gitRequest(token);
+		AuthenticationDecision.AUTHENTICATED.markOn(request);
+		request.setAttribute(AUTHENTICATED_USER_NAME_ATTRIBUTE, username);
+		request.setAttribute(CloudflareToken.FINGERPRINT_ATTRIBUTE, "fingerprint-of-" + token);
+		request.setAttribute(CloudflareToken.EXPIRES_AT_ATTRIBUTE, TOKEN_EXPIRES_AT);
+		return request;
+	}
+
+	private static HttpServletRequest gitRequest(String token) {
+		HttpServletRequest request = requestWithAttributes("/scm/proj/repo.git/info/refs", token);
+		when(request.getHeader("User-Agent")).thenReturn("git/2.30.1");
+		return request;
+	}
+
+	private static HttpServletRequest requestWithAttributes(String requestUri, String token) {
+		HttpServletRequest request = mock(HttpServletRequest.class);
+		when(request.getContextPath()).thenReturn("");
+		when(request.getRequestURI()).thenReturn(requestUri);
+		when(request.getHeader(CloudflareToken.CF_ACCESS_JWT_HEADER)).thenReturn(token);
+		Map<String, Object> attributes = new HashMap<>();
+		doAnswer(invocation -> attributes.put((String) invocation.getArguments()[0], invocation.getArguments()[1]))
+			.when(request).setAttribute(anyString(), any());
+		when(request.getAttribute(anyString())).thenAnswer(invocation -> attributes.get(invocation.getArguments()[0]));
+		return request;
+	}
+}
@@ -1,45 +1,119 @@
 package com.cloudflare.access.atlassian.common;
 
 import java.io.IOException;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.http.HttpHeaders;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.cloudflare.access.atlassian.common.exception.CertificateProcessingException;
 import com.cloudflare.access.atlassian.common.http.SimpleHttp;
+import com.cloudflare.access.atlassian.common.http.SimpleHttpResponse;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.google.common.cache.CacheBuilder;
-import com.google.common.cache.CacheLoader;
-import com.google.common.cache.LoadingCache;
 
-public class CertificateProvider {
+/**
+ * Provides the signing keys published at the certs URL.
+ *
+ * Only the first request for an URL waits for the keys to be downloaded, after that the keys
+ * are refreshed ahead of time by a background scheduler, using the asynchronous HTTP requests,
+ * and requests always read the last downloaded snapshot. URLs not requested for a while stop being refreshed.
+ *
+ * When the certs URL fails the last downloaded keys keep being served for a grace period,
+ * while the downloads go through a {@link CircuitBreaker} so a failing endpoint is retried
+ * with an exponential backoff instead of once per request.
+ *
+ * Refreshes are conditional requests using the ETag and Last-Modified validators, so unchanged
+ * keys are neither downloaded nor parsed again, and they happen as often as the Cache-Control
+ * max-age of the certs response asks for, within sane bounds.
+ */
+public class CertificateProvider implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(CertificateProvider.class);
+
+	public static final Duration DEFAULT_REFRESH_INTERVAL = Duration.ofMinutes(1);
+	public static final Duration DEFAULT_GRACE_PERIOD = Duration.ofHours(1);
+	private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(5);
+	private static final Duration MAX_BACKOFF = Duration.ofMinutes(5);
+	private static final Duration MIN_MAX_AGE = Duration.ofSeconds(10);
+	private static final Duration MAX_MAX_AGE = Duration.ofHours(1);
+	private static final Pattern MAX_AGE_PATTERN = Pattern.compile("max-age\\s*=\\s*\"?(\\d+)");
+	private static final int IDLE_REFRESHES_BEFORE_EVICTION = 60;
 
-	private final LoadingCache<String, List<String>> certificateCache;
+	private final Map<String, KeySnapshot> snapshots;
+	private final ScheduledExecutorService refreshScheduler;
 	private final SimpleHttp http;
+	private final Duration refreshInterval;
+	private final Duration gracePeriod;
+	private final Clock clock;
 
 	public CertificateProvider(SimpleHttp http) {
+		this(http, DEFAULT_REFRESH_INTERVAL, DEFAULT_GRACE_PERIOD);
+	}
+
+	public CertificateProvider(SimpleHttp http, Duration refreshInterval, Duration gracePeriod) {
+		this(http, refreshInterval, gracePeriod, Clock.systemUTC());
+	}
+
+	CertificateProvider(SimpleHttp http, Duration refreshInterval, Duration gracePeriod, Clock clock) {
+		this(http, refreshInterval, gracePeriod, clock, Executors.newSingleThreadScheduledExecutor(runnable -> {
+			Thread thread = new Thread(runnable, "cloudflare-access-certs-refresh");
+			thread.setDaemon(true);
+			return thread;
+		}));
+	}
+
+	CertificateProvider(SimpleHttp http, Duration refreshInterval, Duration gracePeriod, Clock clock, ScheduledExecutorService refreshScheduler) {
 		this.http = http;
-		this.certificateCache = CacheBuilder
-				.newBuilder()
-				.expireAfterWrite(1, TimeUnit.MINUTES)
-				.build(new CacheLoader<String, List<String>>(){
-					@Override
-					public List<String> load(String url) throws Exception {
-						return loadCertificatesAsJson(url);
-					}
-				});
+		this.refreshInterval = refreshInterval;
+		this.gracePeriod = gracePeriod;
+		this.clock = clock;
+		this.snapshots = new ConcurrentHashMap<>();
+		this.refreshScheduler = refreshScheduler;
 	}
 
 	public List<String> getCerticatesAsJson(String url){
-		try {
-			return certificateCache.get(url);
-		} catch (ExecutionException e) {
-			e.printStackTrace();
-			throw new CertificateProcessingException(String.format("Unable to load certs from Cache '%s': %s", url, e.getMessage()), e);
+		return getSigningKeyRegistry(url).getKeysAsJson();
+	}
+
+	public SigningKeyRegistry getSigningKeyRegistry(String url){
+		KeySnapshot snapshot = snapshots.computeIfAbsent(url, key -> new KeySnapshot(newCircuitBreaker(), clock.instant()));
+		snapshot.lastAccess = clock.instant();
+
+		SigningKeyRegistry registry = snapshot.getUsableRegistry();
+		if(registry != null) {
+			return registry;
 		}
+		return loadNow(url, snapshot);
+	}
+
+	/**
+	 * @return the state of the circuit breaker guarding the downloads from the given URL
+	 */
+	public CircuitBreaker.State getCircuitBreakerState(String url) {
+		KeySnapshot snapshot = snapshots.get(url);
+		return snapshot == null ? CircuitBreaker.State.CLOSED : snapshot.circuitBreaker.getState();
 	}
 
 	public List<String> loadCertificatesAsJson(String url){
@@ -47,11 +121,172 @@ public class CertificateProvider {
 			String certsJson = http.get(url);
 			return parseJson(certsJson);
 		} catch (Exception e) {
-			e.printStackTrace();
 			throw new CertificateProcessingException(String.format("Unable to request/parse certs from URL '%s': %s", url, e.getMessage()), e);
 		}
 	}
 
+	@Override
+	public void close() {
+		refreshScheduler.shutdownNow();
+		snapshots.clear();
+	}
+
+	private SigningKeyRegistry loadNow(String url, KeySnapshot snapshot) {
+		synchronized (snapshot) {
+			SigningKeyRegistry registry = snapshot.getUsableRegistry();
+			if(registry != null) {
+				return registry;
+			}
+
+			if(snapshot.circuitBreaker.allowRequest() == false) {
+				throw new CertificateProcessingException(String.format("Certs from URL '%s' unavailable, next attempt at %s", url, snapshot.circuitBreaker.getRetryAt()));
+			}
+
+			log.debug("Loading certificates from {}", url);
+			registry = await(url, download(url, snapshot));
+			if(snapshot.refreshScheduled == false) {
+				snapshot.refreshScheduled = true;
+				scheduleRefresh(url, snapshot.timeToLive);
+			}
+			return registry;
+		}
+	}
+
+	private CompletableFuture<SigningKeyRegistry> download(String url, KeySnapshot snapshot) {
+		SigningKeyRegistry current = snapshot.registry;
+		Map<String, String> conditionalHeaders = current == null ? Collections.emptyMap() : snapshot.validators;
+		return http.getAsync(url, conditionalHeaders)
+				.thenApply(response -> revalidate(url, snapshot, current, response))
+				.whenComplete((registry, failure) -> {
+					if(failure == null) {
+						if(snapshot.circuitBreaker.getState() != CircuitBreaker.State.CLOSED) {
+							log.info("Certificates from {} available again", url);
+						}
+						snapshot.circuitBreaker.recordSuccess();
+					}else {
+						snapshot.circuitBreaker.recordFailure();
+						log.warn("Unable to load certificates from {}, retrying after {}: {}", new Object[] {url, snapshot.circuitBreaker.getRetryAt(), unwrap(failure).getMessage()});
+					}
+				});
+	}
+
+	private SigningKeyRegistry await(String url, CompletableFuture<SigningKeyRegistry> download) {
+		try {
+			return download.join();
+		}catch (CompletionException | CancellationException e) {
+			Throwable cause = unwrap(e);
+			if(cause instanceof CertificateProcessingException) {
+				throw (CertificateProcessingException) cause;
+			}
+			throw new CertificateProcessingException(String.format("Unable to request certs from URL '%s': %s", url, cause.getMessage()), cause);
+		}
+	}
+
+	private SigningKeyRegistry revalidate(String url, KeySnapshot snapshot, SigningKeyRegistry current, SimpleHttpResponse response) {
+		Duration timeToLive = getTimeToLive(response);
+		if(response.isNotModified() && current != null) {
+			log.debug("Certificates from {} not modified", url);
+			snapshot.update(current, snapshot.validators, timeToLive, clock.instant());
+			return current;
+		}
+
+		if(response.isSuccessful() == false) {
+			throw new CertificateProcessingException(String.format("Unable to request certs from URL '%s': status %d", url, response.getStatus()));
+		}
+
+		SigningKeyRegistry registry;
+		try {
+			registry = SigningKeyRegistry.fromJson(parseJson(response.getBody()));
+		} catch (Exception e) {
+			throw new CertificateProcessingException(String.format("Unable to parse certs from URL '%s': %s", url, e.getMessage()), e);
+		}
+		snapshot.update(registry, getValidators(response), timeToLive, clock.instant());
+		return registry;
+	}
+
+	private Map<String, String> getValidators(SimpleHttpResponse response) {
+		Map<String, String> validators = new HashMap<>();
+		response.getHeader(HttpHeaders.ETAG).ifPresent(etag -> validators.put(HttpHeaders.IF_NONE_MATCH, etag));
+		response.getHeader(HttpHeaders.LAST_MODIFIED).ifPresent(lastModified -> validators.put(HttpHeaders.IF_MODIFIED_SINCE, lastModified));
+		return validators;
+	}
+
+	private Duration getTimeToLive(SimpleHttpResponse response) {
+		Optional<String> cacheControl = response.getHeader(HttpHeaders.CACHE_CONTROL);
+		if(cacheControl.isPresent() == false) {
+			return refreshInterval;
+		}
+
+		Matcher maxAge = MAX_AGE_PATTERN.matcher(cacheControl.get());
+		if(maxAge.find() == false) {
+			return refreshInterval;
+		}
+
+		Duration timeToLive = Duration.ofSeconds(Long.parseLong(maxAge.group(1)));
+		if(timeToLive.compareTo(MIN_MAX_AGE) < 0) {
+			return MIN_MAX_AGE;
+		}
+		return timeToLive.compareTo(MAX_MAX_AGE) > 0 ? MAX_MAX_AGE : timeToLive;
+	}
+
+	private void scheduleRefresh(String url, Duration delay) {
+		try {
+			refreshScheduler.schedule(() -> refresh(url), delay.toMillis(), TimeUnit.MILLISECONDS);
+		}catch (RejectedExecutionException e) {
+			log.debug("Certificates refresh not scheduled for {}, provider is closed", url);
+		}
+	}
+
+	private void refresh(String url) {
+		KeySnapshot current = snapshots.get(url);
+		if(current == null) {
+			return;
+		}
+
+		if(Duration.between(current.lastAccess, clock.instant()).compareTo(refreshInterval.multipliedBy(IDLE_REFRESHES_BEFORE_EVICTION)) > 0) {
+			log.debug("Certificates from {} not used recently, no longer refreshing them", url);
+			snapshots.remove(url, current);
+			return;
+		}
+
+		if(current.circuitBreaker.allowRequest() == false) {
+			scheduleRefresh(url, getNextRefreshDelay(current));
+			return;
+		}
+
+		download(url, current).whenComplete((registry, failure) -> {
+			if(failure != null) {
+				log.debug("Keeping the previous certificates from {}", url);
+			}
+			scheduleRefresh(url, getNextRefreshDelay(current));
+		});
+	}
+
+	/**
+	 * While a half open trial runs, started by a request, the breaker refuses other calls with a
+	 * retry time already past, so the refresh waits a full interval instead of rescheduling itself
+	 * until the trial ends.
+	 */
+	private Duration getNextRefreshDelay(KeySnapshot snapshot) {
+		Instant retryAt = snapshot.circuitBreaker.getRetryAt();
+		if(retryAt == null || snapshot.circuitBreaker.getState() == CircuitBreaker.State.HALF_OPEN) {
+			return snapshot.timeToLive;
+		}
+		Duration untilRetry = Duration.between(clock.instant(), retryAt);
+		return untilRetry.isNegative() ? Duration.ZERO : untilRetry;
+	}
+
+	private static Throwable unwrap(Throwable failure) {
+		if((failure instanceof CompletionException || failure instanceof ExecutionException) && failure.getCause() != null) {
+			return failure.getCause();
+		}
+		return failure;
+	}
+
+	private CircuitBreaker newCircuitBreaker() {
+		return new CircuitBreaker(INITIAL_BACKOFF, MAX_BACKOFF, clock);
+	}
+
 	private List<String> parseJson(String certsJsonObject) throws IOException, JsonProcessingException {
 		List<String> certificatesAsJson = new ArrayList<>();
 		ObjectMapper jackson = new ObjectMapper();
@@ -62,4 +297,43 @@ public class CertificateProvider {
 		return certificatesAsJson;
 	}
 
+	private class KeySnapshot {
+		private final CircuitBreaker circuitBreaker;
+		private volatile SigningKeyRegistry registry;
+		private volatile Map<String, String> validators;
+		private volatile Duration timeToLive;
+		private volatile Instant loadedAt;
+		private volatile Instant lastAccess;
+		private boolean refreshScheduled;
+
+		KeySnapshot(CircuitBreaker circuitBreaker, Instant now) {
+			this.circuitBreaker = circuitBreaker;
+			this.validators = Collections.emptyMap();
+			this.timeToLive = refreshInterval;
+			this.lastAccess = now;
+		}
+
+		void update(SigningKeyRegistry registry, Map<String, String> validators, Duration timeToLive, Instant now) {
+			this.validators = validators;
+			this.timeToLive = timeToLive;
+			this.loadedAt = now;
+			this.registry = registry;
+		}
+
+		/**
+		 * @return the last downloaded keys, unless they were not refreshed for longer than the grace period
+		 */
+		SigningKeyRegistry getUsableRegistry() {
+			SigningKeyRegistry current = this.registry;
+			if(current == null) {
+				return null;
+			}
+
+			Instant usableUntil = loadedAt.plus(timeToLive).plus(gracePeriod);
+			if(clock.instant().isAfter(usableUntil)) {
+				return null;
+			}
+			return current;
+		}
+	}
 }
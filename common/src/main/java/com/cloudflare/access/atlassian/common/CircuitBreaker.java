@@ -0,0 +1,85 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * Stops calling a failing remote endpoint for an exponentially growing backoff period.
+ *
+ * Once the backoff elapses a single trial call is allowed (half open), the breaker closes
+ * again when it succeeds or reopens with a doubled backoff when it fails.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+
+	private final Duration initialBackoff;
+	private final Duration maxBackoff;
+	private final Clock clock;
+
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private Instant retryAt;
+
+	public CircuitBreaker(Duration initialBackoff, Duration maxBackoff, Clock clock) {
+		this.initialBackoff = initialBackoff;
+		this.maxBackoff = maxBackoff;
+		this.clock = clock;
+	}
+
+	/**
+	 * @return true if the call can be attempted, moving an open breaker to half open once its backoff elapsed
+	 */
+	public synchronized boolean allowRequest() {
+		switch (state) {
+		case CLOSED:
+			return true;
+		case OPEN:
+			if(clock.instant().isBefore(retryAt)) {
+				return false;
+			}
+			state = State.HALF_OPEN;
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	public synchronized void recordSuccess() {
+		state = State.CLOSED;
+		consecutiveFailures = 0;
+		retryAt = null;
+	}
+
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		state = State.OPEN;
+		retryAt = clock.instant().plus(getBackoff());
+	}
+
+	public synchronized State getState() {
+		return state;
+	}
+
+	public synchronized int getConsecutiveFailures() {
+		return consecutiveFailures;
+	}
+
+	/**
+	 * @return when the next call is allowed, null if the breaker is closed
+	 */
+	public synchronized Instant getRetryAt() {
+		return retryAt;
+	}
+
+	private Duration getBackoff() {
+		int exponent = Math.min(consecutiveFailures - 1, 30);
+		Duration backoff = initialBackoff.multipliedBy(1L << exponent);
+		return backoff.compareTo(maxBackoff) > 0 ? maxBackoff : backoff;
+	}
+}
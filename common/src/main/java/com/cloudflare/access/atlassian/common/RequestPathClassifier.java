@@ -0,0 +1,321 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Tells if a request path matches one of a set of rules, like the paths of static resources
+ * that should not go through the token verification.
+ *
+ * The rules are compiled once: prefix and exact rules into a trie walked from the start of
+ * the path, suffix rules into a case insensitive trie walked from the end of the path. Matching
+ * reads the path characters in place without creating any object, glob rules are only
+ * evaluated when no trie rule matched.
+ *
+ * Rule syntax:
+ * <ul>
+ * <li><code>/s/*</code> paths starting with <code>/s/</code></li>
+ * <li><code>*.js</code> paths ending with <code>.js</code>, ignoring the case</li>
+ * <li><code>/status</code> the exact path</li>
+ * <li><code>/rest/*&#47;health</code> glob, where <code>*</code> matches any characters and <code>?</code> a single one</li>
+ * </ul>
+ */
+public class RequestPathClassifier {
+
+	public static final List<String> DEFAULT_RULES = Collections.unmodifiableList(Arrays.asList(
+			"/s/*",
+			"/download/batch/*",
+			"/download/contextbatch/*",
+			"/download/resources/*",
+			"/status",
+			"*.js", "*.css", "*.map",
+			"*.png", "*.jpg", "*.jpeg", "*.gif", "*.svg", "*.ico",
+			"*.woff", "*.woff2", "*.ttf", "*.eot"
+	));
+
+	public enum RuleType {
+		PREFIX,
+		SUFFIX,
+		EXACT,
+		GLOB
+	}
+
+	private final List<Rule> rules;
+	private final TrieNode prefixes = new TrieNode();
+	private final TrieNode suffixes = new TrieNode();
+	private final Rule[] globs;
+
+	/**
+	 * @param rules the rules to compile
+	 * @throws IllegalArgumentException if any rule is invalid
+	 */
+	public RequestPathClassifier(Collection<String> rules) {
+		List<Rule> compiledRules = new ArrayList<>();
+		List<Rule> globRules = new ArrayList<>();
+		for(String pattern : rules) {
+			Rule rule = Rule.parse(pattern);
+			compiledRules.add(rule);
+			switch (rule.type) {
+			case PREFIX:
+				prefixes.add(rule.literal, false).setPrefixRule(rule);
+				break;
+			case EXACT:
+				prefixes.add(rule.literal, false).setExactRule(rule);
+				break;
+			case SUFFIX:
+				suffixes.add(new StringBuilder(rule.literal).reverse().toString(), true).setPrefixRule(rule);
+				break;
+			default:
+				globRules.add(rule);
+			}
+		}
+		this.rules = Collections.unmodifiableList(compiledRules);
+		this.globs = globRules.toArray(new Rule[globRules.size()]);
+	}
+
+	/**
+	 * @param rulesText rules separated by whitespaces or commas
+	 * @return the rules, without the blank ones
+	 */
+	public static List<String> parseRules(String rulesText) {
+		if(StringUtils.isBlank(rulesText)) {
+			return Collections.emptyList();
+		}
+		List<String> rules = new ArrayList<>();
+		for(String rule : rulesText.split("[\\s,]+")) {
+			if(rule.isEmpty() == false) {
+				rules.add(rule);
+			}
+		}
+		return rules;
+	}
+
+	/**
+	 * @return true if every rule in the text is valid
+	 */
+	public static boolean isValid(String rulesText) {
+		try {
+			parseRules(rulesText).forEach(Rule::parse);
+			return true;
+		}catch (IllegalArgumentException e) {
+			return false;
+		}
+	}
+
+	public boolean matches(String path) {
+		return classify(path, 0) != null;
+	}
+
+	/**
+	 * @param requestUri the request URI
+	 * @param pathStart where the path to classify starts, like the length of the context path
+	 * @return the first matching rule, which hit count is incremented, or null if no rule matches
+	 */
+	public Rule classify(String requestUri, int pathStart) {
+		Rule rule = matchPrefix(requestUri, pathStart);
+		if(rule == null) {
+			rule = matchSuffix(requestUri, pathStart);
+		}
+		for(int i = 0; rule == null && i < globs.length; i++) {
+			if(globs[i].globMatches(requestUri, pathStart)) {
+				rule = globs[i];
+			}
+		}
+		if(rule != null) {
+			rule.hits.increment();
+		}
+		return rule;
+	}
+
+	public List<Rule> getRules() {
+		return rules;
+	}
+
+	/**
+	 * @return the number of matches of each rule since it was compiled
+	 */
+	public Map<String, Long> getHitCounts() {
+		Map<String, Long> hitCounts = new LinkedHashMap<>();
+		for(Rule rule : rules) {
+			hitCounts.put(rule.pattern, rule.getHits());
+		}
+		return hitCounts;
+	}
+
+	private Rule matchPrefix(String path, int start) {
+		TrieNode node = prefixes;
+		for(int i = start; i < path.length(); i++) {
+			node = node.child(path.charAt(i));
+			if(node == null) {
+				return null;
+			}
+			if(node.prefixRule != null) {
+				return node.prefixRule;
+			}
+		}
+		return node.exactRule;
+	}
+
+	private Rule matchSuffix(String path, int start) {
+		TrieNode node = suffixes;
+		for(int i = path.length() - 1; i >= start; i--) {
+			node = node.child(Character.toLowerCase(path.charAt(i)));
+			if(node == null) {
+				return null;
+			}
+			if(node.prefixRule != null) {
+				return node.prefixRule;
+			}
+		}
+		return null;
+	}
+
+	public static final class Rule {
+
+		private final String pattern;
+		private final RuleType type;
+		private final String literal;
+		private final LongAdder hits = new LongAdder();
+
+		private Rule(String pattern, RuleType type, String literal) {
+			this.pattern = pattern;
+			this.type = type;
+			this.literal = literal;
+		}
+
+		static Rule parse(String pattern) {
+			if(pattern.startsWith("/") == false && pattern.startsWith("*") == false) {
+				throw new IllegalArgumentException(String.format("Rule '%s' should start with '/' or '*'", pattern));
+			}
+
+			if(pattern.startsWith("*")) {
+				String suffix = pattern.substring(1);
+				if(suffix.isEmpty()) {
+					throw new IllegalArgumentException("Rule '*' would match every path");
+				}
+				if(hasWildcard(suffix) == false) {
+					return new Rule(pattern, RuleType.SUFFIX, suffix.toLowerCase());
+				}
+			}else if(pattern.endsWith("*")) {
+				String prefix = pattern.substring(0, pattern.length() - 1);
+				if(hasWildcard(prefix) == false) {
+					return new Rule(pattern, RuleType.PREFIX, prefix);
+				}
+			}else if(hasWildcard(pattern) == false) {
+				return new Rule(pattern, RuleType.EXACT, pattern);
+			}
+			return new Rule(pattern, RuleType.GLOB, pattern);
+		}
+
+		public String getPattern() {
+			return pattern;
+		}
+
+		public RuleType getType() {
+			return type;
+		}
+
+		public long getHits() {
+			return hits.sum();
+		}
+
+		private boolean globMatches(String path, int start) {
+			int p = start;
+			int g = 0;
+			int starG = -1;
+			int starP = -1;
+			while(p < path.length()) {
+				if(g < literal.length() && (literal.charAt(g) == '?' || literal.charAt(g) == path.charAt(p))) {
+					g++;
+					p++;
+				}else if(g < literal.length() && literal.charAt(g) == '*') {
+					starG = g++;
+					starP = p;
+				}else if(starG >= 0) {
+					g = starG + 1;
+					p = ++starP;
+				}else {
+					return false;
+				}
+			}
+			while(g < literal.length() && literal.charAt(g) == '*') {
+				g++;
+			}
+			return g == literal.length();
+		}
+
+		private static boolean hasWildcard(String value) {
+			return value.indexOf('*') >= 0 || value.indexOf('?') >= 0;
+		}
+
+		@Override
+		public String toString() {
+			return type + " " + pattern;
+		}
+	}
+
+	/**
+	 * Trie node with the children sorted by character, so a lookup is a binary search
+	 * over a primitive array.
+	 */
+	private static final class TrieNode {
+
+		private char[] keys = new char[0];
+		private TrieNode[] children = new TrieNode[0];
+		private Rule prefixRule;
+		private Rule exactRule;
+
+		private TrieNode child(char key) {
+			int index = Arrays.binarySearch(keys, key);
+			return index >= 0 ? children[index] : null;
+		}
+
+		private void setPrefixRule(Rule rule) {
+			if(prefixRule == null) {
+				prefixRule = rule;
+			}
+		}
+
+		private void setExactRule(Rule rule) {
+			if(exactRule == null) {
+				exactRule = rule;
+			}
+		}
+
+		private TrieNode add(String value, boolean lowerCase) {
+			TrieNode node = this;
+			for(int i = 0; i < value.length(); i++) {
+				char key = lowerCase ? Character.toLowerCase(value.charAt(i)) : value.charAt(i);
+				TrieNode child = node.child(key);
+				if(child == null) {
+					child = node.insert(key);
+				}
+				node = child;
+			}
+			return node;
+		}
+
+		private TrieNode insert(char key) {
+			int index = -(Arrays.binarySearch(keys, key) + 1);
+			char[] newKeys = new char[keys.length + 1];
+			TrieNode[] newChildren = new TrieNode[children.length + 1];
+			System.arraycopy(keys, 0, newKeys, 0, index);
+			System.arraycopy(children, 0, newChildren, 0, index);
+			System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+			System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+			newKeys[index] = key;
+			newChildren[index] = new TrieNode();
+			keys = newKeys;
+			children = newChildren;
+			return newChildren[index];
+		}
+	}
+}
@@ -0,0 +1,82 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+
+import org.apache.cxf.rs.security.jose.jwk.JsonWebKey;
+import org.apache.cxf.rs.security.jose.jwk.JwkUtils;
+import org.apache.cxf.rs.security.jose.jws.JwsSignatureVerifier;
+import org.apache.cxf.rs.security.jose.jws.JwsUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Signing keys parsed once into ready to use signature verifiers, indexed by the key id (kid).
+ *
+ * Instances are immutable and meant to be built once per certificates refresh and shared
+ * between all the requests validating tokens with them.
+ */
+public class SigningKeyRegistry {
+
+	private static final Logger log = LoggerFactory.getLogger(SigningKeyRegistry.class);
+
+	private final List<String> keysAsJson;
+	private final Map<String, JwsSignatureVerifier> verifiersByKeyId;
+	private final List<JwsSignatureVerifier> allVerifiers;
+
+	private SigningKeyRegistry(List<String> keysAsJson, Map<String, JwsSignatureVerifier> verifiersByKeyId, List<JwsSignatureVerifier> allVerifiers) {
+		this.keysAsJson = Collections.unmodifiableList(keysAsJson);
+		this.verifiersByKeyId = Collections.unmodifiableMap(verifiersByKeyId);
+		this.allVerifiers = Collections.unmodifiableList(allVerifiers);
+	}
+
+	public static SigningKeyRegistry fromJson(List<String> keysAsJson) {
+		Map<String, JwsSignatureVerifier> verifiersByKeyId = new HashMap<>();
+		List<JwsSignatureVerifier> allVerifiers = new ArrayList<>();
+		for (String jsonKey : keysAsJson) {
+			try {
+				JsonWebKey jwk = JwkUtils.readJwkKey(jsonKey);
+				JwsSignatureVerifier verifier = JwsUtils.getSignatureVerifier(jwk);
+				allVerifiers.add(verifier);
+				if(jwk.getKeyId() != null) {
+					verifiersByKeyId.put(jwk.getKeyId(), verifier);
+				}
+			}catch (Exception e) {
+				log.warn("Ignoring signing key that could not be parsed: " + e.getMessage(), e);
+			}
+		}
+		return new SigningKeyRegistry(new ArrayList<>(keysAsJson), verifiersByKeyId, allVerifiers);
+	}
+
+	/**
+	 * @param keyId the kid from the token header
+	 * @return the verifier for the key with the given id, if any
+	 */
+	public Optional<JwsSignatureVerifier> getVerifier(String keyId) {
+		return Optional.ofNullable(verifiersByKeyId.get(keyId));
+	}
+
+	/**
+	 * @return all the parsed verifiers, to be used only with tokens not carrying a kid header
+	 */
+	public List<JwsSignatureVerifier> getVerifiers() {
+		return allVerifiers;
+	}
+
+	public Set<String> getKeyIds() {
+		return verifiersByKeyId.keySet();
+	}
+
+	public List<String> getKeysAsJson() {
+		return keysAsJson;
+	}
+
+	public boolean isEmpty() {
+		return allVerifiers.isEmpty();
+	}
+}
@@ -0,0 +1,71 @@
+package com.cloudflare.access.atlassian.common;
+
+import org.apache.cxf.rs.security.jose.jwt.JwtToken;
+
+import com.cloudflare.access.atlassian.common.exception.InvalidJWTException;
+
+/**
+ * Outcome of a token verification, telling why a token was rejected without
+ * the cost of creating and throwing an exception for it.
+ */
+public class TokenVerificationResult {
+
+	public static final String INVALID_TOKEN_MESSAGE = "Invalid or expired token. Please logout and try again or proceed with your Atlassian credentials.";
+
+	public enum Status {
+		VALID,
+		MALFORMED,
+		EXPIRED,
+		WRONG_AUDIENCE,
+		WRONG_ISSUER,
+		UNKNOWN_KEY,
+		BAD_SIGNATURE
+	}
+
+	private final Status status;
+	private final JwtToken jwt;
+
+	private TokenVerificationResult(Status status, JwtToken jwt) {
+		this.status = status;
+		this.jwt = jwt;
+	}
+
+	static TokenVerificationResult valid(JwtToken jwt) {
+		return new TokenVerificationResult(Status.VALID, jwt);
+	}
+
+	static TokenVerificationResult rejected(Status status) {
+		return new TokenVerificationResult(status, null);
+	}
+
+	public Status getStatus() {
+		return status;
+	}
+
+	public boolean isValid() {
+		return status == Status.VALID;
+	}
+
+	/**
+	 * @return the verified token, only available when the result is valid
+	 */
+	public JwtToken getJwt() {
+		if(isValid() == false) {
+			throw toException();
+		}
+		return jwt;
+	}
+
+	/**
+	 * @return the exception describing a rejected token, created without a stack trace
+	 * as the rejection reason is already known from the status
+	 */
+	public InvalidJWTException toException() {
+		return new InvalidJWTException(INVALID_TOKEN_MESSAGE, status);
+	}
+
+	@Override
+	public String toString() {
+		return "TokenVerificationResult [" + status + "]";
+	}
+}
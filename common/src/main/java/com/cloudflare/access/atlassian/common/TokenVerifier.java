@@ -1,18 +1,20 @@
 package com.cloudflare.access.atlassian.common;
 
 import java.time.Instant;
+import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.Optional;
 
 import org.apache.commons.lang3.StringEscapeUtils;
-import org.apache.cxf.rs.security.jose.jwk.JwkUtils;
+import org.apache.cxf.rs.security.jose.jws.JwsJwtCompactConsumer;
 import org.apache.cxf.rs.security.jose.jws.JwsSignatureVerifier;
-import org.apache.cxf.rs.security.jose.jws.JwsUtils;
-import org.apache.cxf.rs.security.jose.jwt.JoseJwtConsumer;
 import org.apache.cxf.rs.security.jose.jwt.JwtClaims;
 import org.apache.cxf.rs.security.jose.jwt.JwtToken;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.cloudflare.access.atlassian.common.TokenVerificationResult.Status;
 import com.cloudflare.access.atlassian.common.context.AuthenticationContext;
 import com.cloudflare.access.atlassian.common.exception.InvalidJWTException;
 
@@ -21,50 +23,119 @@ public class TokenVerifier {
 	private static final Logger log = LoggerFactory.getLogger(TokenVerifier.class);
 
 	private AuthenticationContext context;
+	private VerifiedTokenCache verifiedTokenCache;
 
 	public TokenVerifier(AuthenticationContext context) {
+		this(context, null);
+	}
+
+	public TokenVerifier(AuthenticationContext context, VerifiedTokenCache verifiedTokenCache) {
 		this.context = context;
+		this.verifiedTokenCache = verifiedTokenCache;
+	}
+
+	/**
+	 * Validates the token claims on the decoded, not yet verified, payload before running
+	 * the signature verification, so expired or foreign tokens are rejected without paying
+	 * for the signature crypto. The signature still has to be valid for the token to be accepted,
+	 * and as it covers the same payload the claims checked upfront are the ones it protects.
+	 *
+	 * Rejections are reported in the returned result, nothing is thrown for invalid tokens.
+	 */
+	public TokenVerificationResult verify(String token) {
+		JwsJwtCompactConsumer jwsConsumer = parse(token);
+		if(jwsConsumer == null) {
+			return TokenVerificationResult.rejected(Status.MALFORMED);
+		}
+
+		JwtToken jwt = jwsConsumer.getJwtToken();
+		Status claimsStatus = verifyClaims(jwt);
+		if(claimsStatus != Status.VALID) {
+			return TokenVerificationResult.rejected(claimsStatus);
+		}
+
+		Status signatureStatus = verifySignature(jwsConsumer, jwt);
+		if(signatureStatus != Status.VALID) {
+			return TokenVerificationResult.rejected(signatureStatus);
+		}
+		return TokenVerificationResult.valid(jwt);
 	}
 
+	/**
+	 * Same as {@link #verify(String)} but throwing an {@link InvalidJWTException} for invalid tokens.
+	 */
 	public JwtToken validate(String token) throws InvalidJWTException{
-		JwtToken jwt = getJWT(token);
-		validateClaims(jwt);
-		return jwt;
+		return verify(token).getJwt();
+	}
+
+	/**
+	 * Same as {@link #validate(String)} but skipping the signature and claims verification
+	 * when the token was already verified and it is still present in the verified tokens cache.
+	 */
+	public VerifiedToken getVerifiedToken(String token) throws InvalidJWTException{
+		if(verifiedTokenCache == null || token == null) {
+			return VerifiedToken.of(validate(token), context.getUsernameClaim());
+		}
+
+		Optional<VerifiedToken> cachedToken = verifiedTokenCache.get(context, token);
+		if(cachedToken.isPresent()) {
+			return cachedToken.get();
+		}
+
+		VerifiedToken verifiedToken = VerifiedToken.of(validate(token), context.getUsernameClaim());
+		verifiedTokenCache.put(context, token, verifiedToken);
+		return verifiedToken;
 	}
 
-	private void validateClaims(JwtToken jwt) {
+	private JwsJwtCompactConsumer parse(String token) {
+		if(token == null) {
+			log.debug("Token is null");
+			return null;
+		}
+
 		try {
-			new ClaimsVerifier(jwt.getClaims())
-				.validateAudience()
-				.validateExpire()
-				.validateIssuer();
+			JwsJwtCompactConsumer jwsConsumer = new JwsJwtCompactConsumer(token);
+			jwsConsumer.getJwtToken();
+			return jwsConsumer;
 		}catch (Exception e) {
-			throw new InvalidJWTException("Invalid or expired token. Please logout and try again or proceed with your Atlassian credentials.", e);
+			log.debug("Unable to parse token: {}", e.getMessage());
+			return null;
 		}
 	}
 
-	private JwtToken getJWT(String token)  {
-		Exception lastTryFailureCause = null;
-		for(String jsonKey : context.getSigningKeyAsJson()) {
-			try {
-				JwtToken jwtToken = tryParseJwt(jsonKey, token);
-				if(jwtToken != null)
-					return jwtToken;
-			}catch (Exception e) {
-				lastTryFailureCause = e;
-			}
+	private Status verifyClaims(JwtToken jwt) {
+		try {
+			return new ClaimsVerifier(jwt.getClaims()).verify();
+		}catch (RuntimeException e) {
+			log.debug("Unable to read token claims: {}", e.getMessage());
+			return Status.MALFORMED;
 		}
-		throw new InvalidJWTException("Invalid or expired token. Please logout and try again or proceed with your Atlassian credentials.", lastTryFailureCause);
 	}
 
-	private JwtToken tryParseJwt(String jsonKey, String token) {
-		JwsSignatureVerifier signatureVerifier = getSignatureVerifier(jsonKey);
-		JwtToken jwt = new JoseJwtConsumer().getJwtToken(token, null, signatureVerifier);
-		return jwt;
-	}
+	private Status verifySignature(JwsJwtCompactConsumer jwsConsumer, JwtToken jwt)  {
+		SigningKeyRegistry signingKeys = context.getSigningKeyRegistry();
+		String keyId = jwt.getJwsHeaders().getKeyId();
+		List<JwsSignatureVerifier> candidateVerifiers;
+		if(keyId == null) {
+			candidateVerifiers = signingKeys.getVerifiers();
+		}else {
+			Optional<JwsSignatureVerifier> signatureVerifier = signingKeys.getVerifier(keyId);
+			if(signatureVerifier.isPresent() == false) {
+				log.debug("No signing key found for kid '{}', known kids are {}", keyId, signingKeys.getKeyIds());
+				return Status.UNKNOWN_KEY;
+			}
+			candidateVerifiers = Collections.singletonList(signatureVerifier.get());
+		}
 
-	private JwsSignatureVerifier getSignatureVerifier(String jsonKey) {
-		return JwsUtils.getSignatureVerifier(JwkUtils.readJwkKey(jsonKey));
+		for(JwsSignatureVerifier signatureVerifier : candidateVerifiers) {
+			try {
+				if(jwsConsumer.verifySignatureWith(signatureVerifier))
+					return Status.VALID;
+			}catch (RuntimeException e) {
+				log.debug("Signature verification failed: {}", e.getMessage());
+			}
+		}
+		return Status.BAD_SIGNATURE;
 	}
 
 	private class ClaimsVerifier{
@@ -74,29 +145,43 @@ public class TokenVerifier {
 			this.claims = jwtClaims;
 		}
 
-		ClaimsVerifier validateAudience() {
+		Status verify() {
+			if(isAudienceValid() == false) {
+				return Status.WRONG_AUDIENCE;
+			}
+			if(isExpired()) {
+				return Status.EXPIRED;
+			}
+			if(isIssuerValid() == false) {
+				return Status.WRONG_ISSUER;
+			}
+			return Status.VALID;
+		}
+
+		boolean isAudienceValid() {
 			if(Objects.equals(claims.getAudience(), context.getAudience()) == false) {
 				log.debug("Invalid audience, expecting '{}' but received '{}'", context.getAudience(), claims.getAudience());
-				throw new InvalidJWTException("JWT Audience does not match expected audience.");
+				return false;
 			}
-			return this;
+			return true;
 		}
 
-		ClaimsVerifier validateExpire() {
+		boolean isExpired() {
 			Instant nowInstant = Instant.now(context.getClock());
-			if(nowInstant.getEpochSecond() > claims.getExpiryTime()) {
-				log.debug("Expired, token expire at '{}' currently epoch second is '{}'", claims.getExpiryTime(), nowInstant.getEpochSecond());
-				throw new InvalidJWTException(String.format("JWT expired since %s (reference clock is %s).", Instant.ofEpochSecond(claims.getExpiryTime()), nowInstant));
+			Long expiryTime = claims.getExpiryTime();
+			if(expiryTime == null || nowInstant.getEpochSecond() > expiryTime) {
+				log.debug("Expired, token expire at '{}' currently epoch second is '{}'", expiryTime, nowInstant.getEpochSecond());
+				return true;
 			}
-			return this;
+			return false;
 		}
 
-		ClaimsVerifier validateIssuer() {
+		boolean isIssuerValid() {
 			if(Objects.equals(context.getIssuer(), StringEscapeUtils.unescapeJson(claims.getIssuer())) == false) {
 				log.debug("Invalid issuer, expecting '{}' but received '{}'", context.getIssuer(), claims.getIssuer());
-				throw new InvalidJWTException("JWT Issuer does not match expected issuer.");
+				return false;
 			}
-			return this;
+			return true;
 		}
 	}
 
@@ -0,0 +1,64 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.time.Clock;
+import java.time.Instant;
+
+import org.apache.cxf.rs.security.jose.jwt.JwtToken;
+
+/**
+ * The minimal outcome of a successful token verification: who the token belongs to
+ * and until when it can be trusted.
+ */
+public class VerifiedToken {
+
+	private final String email;
+	private final long expiresAt;
+	private final String keyId;
+	private final String username;
+
+	public VerifiedToken(String email, long expiresAt, String keyId) {
+		this(email, expiresAt, keyId, null);
+	}
+
+	public VerifiedToken(String email, long expiresAt, String keyId, String username) {
+		this.email = email;
+		this.expiresAt = expiresAt;
+		this.keyId = keyId;
+		this.username = username;
+	}
+
+	static VerifiedToken of(JwtToken jwt, String usernameClaim) {
+		Object username = usernameClaim == null ? null : jwt.getClaim(usernameClaim);
+		return new VerifiedToken((String) jwt.getClaim("email"), jwt.getClaims().getExpiryTime(), jwt.getJwsHeaders().getKeyId(),
+				username instanceof String ? (String) username : null);
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	/**
+	 * @return the token expiry time as epoch seconds
+	 */
+	public long getExpiresAt() {
+		return expiresAt;
+	}
+
+	/**
+	 * @return the id of the signing key used to verify the token, null if the token had no kid
+	 */
+	public String getKeyId() {
+		return keyId;
+	}
+
+	/**
+	 * @return the username from the configured username claim, null if not configured or not in the token
+	 */
+	public String getUsername() {
+		return username;
+	}
+
+	public boolean isExpired(Clock clock) {
+		return Instant.now(clock).getEpochSecond() > expiresAt;
+	}
+}
@@ -0,0 +1,82 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Optional;
+
+import com.cloudflare.access.atlassian.common.context.AuthenticationContext;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Bounded cache of already verified tokens, so the same token is not verified again
+ * until it expires or the key used to sign it is no longer published.
+ *
+ * Entries are keyed by a SHA-256 fingerprint of the raw token together with the
+ * expected audience and issuer, the raw token itself is never kept in memory.
+ */
+public class VerifiedTokenCache {
+
+	private final Cache<String, VerifiedToken> cache;
+
+	public VerifiedTokenCache(long maximumSize) {
+		this.cache = CacheBuilder.newBuilder()
+				.maximumSize(maximumSize)
+				.recordStats()
+				.build();
+	}
+
+	public Optional<VerifiedToken> get(AuthenticationContext context, String token) {
+		String fingerprint = fingerprint(context, token);
+		VerifiedToken verifiedToken = cache.getIfPresent(fingerprint);
+		if(verifiedToken == null) {
+			return Optional.empty();
+		}
+
+		if(verifiedToken.isExpired(context.getClock()) || isSigningKeyRotated(context, verifiedToken)) {
+			cache.invalidate(fingerprint);
+			return Optional.empty();
+		}
+		return Optional.of(verifiedToken);
+	}
+
+	public void put(AuthenticationContext context, String token, VerifiedToken verifiedToken) {
+		if(verifiedToken.getKeyId() == null) {
+			return;
+		}
+		cache.put(fingerprint(context, token), verifiedToken);
+	}
+
+	public void invalidateAll() {
+		cache.invalidateAll();
+	}
+
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	private boolean isSigningKeyRotated(AuthenticationContext context, VerifiedToken verifiedToken) {
+		return context.getSigningKeyRegistry().getVerifier(verifiedToken.getKeyId()).isPresent() == false;
+	}
+
+	public static String fingerprint(AuthenticationContext context, String token) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			digest.update(String.valueOf(context.getAudience()).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+			digest.update(String.valueOf(context.getIssuer()).getBytes(StandardCharsets.UTF_8));
+			digest.update((byte) '\n');
+			digest.update(token.getBytes(StandardCharsets.UTF_8));
+			return Base64.getEncoder().encodeToString(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 should be available in every JVM", e);
+		}
+	}
+}
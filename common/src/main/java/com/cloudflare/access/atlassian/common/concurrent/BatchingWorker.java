@@ -0,0 +1,117 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Queues items into a bounded buffer and hands them in batches, in submission order, to a
+ * handler running on a single background thread.
+ *
+ * Submissions are rejected, instead of blocking the caller, when the buffer is full or the
+ * worker is shut down. Shutting down drains the items still queued.
+ */
+public class BatchingWorker<E> {
+
+	private static final Logger log = LoggerFactory.getLogger(BatchingWorker.class);
+
+	private static final Duration POLL_TIMEOUT = Duration.ofMillis(500);
+
+	private final String name;
+	private final int batchSize;
+	private final Consumer<List<E>> batchHandler;
+	private final BlockingQueue<E> queue;
+	private final Thread worker;
+
+	private volatile boolean accepting = true;
+
+	public BatchingWorker(String name, int capacity, int batchSize, Consumer<List<E>> batchHandler) {
+		this.name = Objects.requireNonNull(name);
+		this.batchSize = batchSize;
+		this.batchHandler = Objects.requireNonNull(batchHandler);
+		this.queue = new ArrayBlockingQueue<>(capacity);
+		this.worker = new Thread(this::run, name);
+		this.worker.setDaemon(true);
+	}
+
+	public void start() {
+		worker.start();
+	}
+
+	/**
+	 * @return false if the item was not queued, because the buffer is full or the worker is shut down
+	 */
+	public boolean submit(E item) {
+		return accepting && queue.offer(item);
+	}
+
+	public int getQueuedCount() {
+		return queue.size();
+	}
+
+	/**
+	 * Stops accepting items and waits for the queued ones to be handled. Items still queued
+	 * after the worker stopped, submitted while it was shutting down, are handled by the caller.
+	 *
+	 * @return the number of items dropped because the worker did not finish in time
+	 */
+	public int shutdown(Duration timeout) {
+		accepting = false;
+		try {
+			worker.join(timeout.toMillis());
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+
+		if(worker.isAlive()) {
+			worker.interrupt();
+			int dropped = queue.size();
+			queue.clear();
+			log.warn("Worker {} did not drain in {}ms, dropping {} items", new Object[] {name, timeout.toMillis(), dropped});
+			return dropped;
+		}
+
+		drainBatches();
+		return 0;
+	}
+
+	private void run() {
+		try {
+			while(accepting || queue.isEmpty() == false) {
+				E first = queue.poll(POLL_TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+				if(first != null) {
+					List<E> batch = new ArrayList<>(batchSize);
+					batch.add(first);
+					queue.drainTo(batch, batchSize - 1);
+					handle(batch);
+				}
+			}
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void drainBatches() {
+		List<E> batch = new ArrayList<>(batchSize);
+		while(queue.drainTo(batch, batchSize) > 0) {
+			handle(batch);
+			batch = new ArrayList<>(batchSize);
+		}
+	}
+
+	private void handle(List<E> batch) {
+		try {
+			batchHandler.accept(batch);
+		}catch (RuntimeException e) {
+			log.warn("Worker {} failed to handle a batch of {} items: {}", new Object[] {name, batch.size(), e.getMessage()});
+		}
+	}
+}
@@ -0,0 +1,54 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import java.util.Objects;
+import java.util.function.Supplier;
+
+/**
+ * Lazily resolves a component on first use and keeps it for the next calls, so a
+ * service registry lookup runs once instead of on every request.
+ *
+ * A resolver returning null is retried on the next call, and {@link #reset()} drops the
+ * resolved component so it is resolved again, like after the plugin providing it restarts.
+ */
+public class ComponentHandle<T> implements Supplier<T> {
+
+	private final String name;
+	private final Supplier<T> resolver;
+
+	private volatile T component;
+
+	public ComponentHandle(String name, Supplier<T> resolver) {
+		this.name = Objects.requireNonNull(name);
+		this.resolver = Objects.requireNonNull(resolver);
+	}
+
+	@Override
+	public T get() {
+		T resolved = component;
+		if(resolved == null) {
+			synchronized (this) {
+				resolved = component;
+				if(resolved == null) {
+					resolved = resolver.get();
+					if(resolved == null) {
+						throw new IllegalStateException("Component " + name + " is not available");
+					}
+					component = resolved;
+				}
+			}
+		}
+		return resolved;
+	}
+
+	public boolean isResolved() {
+		return component != null;
+	}
+
+	public void reset() {
+		component = null;
+	}
+
+	public String getName() {
+		return name;
+	}
+}
@@ -0,0 +1,83 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthorizedException;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller runs the call and the
+ * callers arriving while it runs get its result, or its exception, instead of running
+ * the same call again.
+ *
+ * Waiters give up after the configured timeout with a {@link CloudflareAccessUnauthorizedException},
+ * instead of running the call themselves, so a slow call is never multiplied by the callers
+ * waiting for it.
+ */
+public class SingleFlight<K, V> {
+
+	private static final Logger log = LoggerFactory.getLogger(SingleFlight.class);
+
+	private final ConcurrentMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+	private final Duration waitTimeout;
+
+	public SingleFlight(Duration waitTimeout) {
+		this.waitTimeout = waitTimeout;
+	}
+
+	public V execute(K key, Supplier<V> call) {
+		CompletableFuture<V> flight = new CompletableFuture<>();
+		CompletableFuture<V> runningFlight = inFlight.putIfAbsent(key, flight);
+		if(runningFlight != null) {
+			return await(key, runningFlight);
+		}
+
+		try {
+			V value = call.get();
+			flight.complete(value);
+			return value;
+		}catch (RuntimeException | Error e) {
+			flight.completeExceptionally(e);
+			throw e;
+		}finally {
+			inFlight.remove(key, flight);
+		}
+	}
+
+	/**
+	 * @return the number of calls currently running
+	 */
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+
+	private V await(K key, CompletableFuture<V> runningFlight) {
+		try {
+			return runningFlight.get(waitTimeout.toMillis(), TimeUnit.MILLISECONDS);
+		}catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if(cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if(cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IllegalStateException(cause);
+		}catch (TimeoutException e) {
+			log.warn("Call for key {} still running after {}ms, giving up", key, waitTimeout.toMillis());
+			throw new CloudflareAccessUnauthorizedException(String.format("Timed out after %dms waiting for the call of key %s", waitTimeout.toMillis(), key), e);
+		}catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for the call of key " + key, e);
+		}
+	}
+}
@@ -3,13 +3,26 @@ package com.cloudflare.access.atlassian.common.context;
 import java.time.Clock;
 import java.util.List;
 
+import com.cloudflare.access.atlassian.common.SigningKeyRegistry;
+
 public interface AuthenticationContext {
 	public String getAudience();
 	public String getIssuer();
 	public List<String> getSigningKeyAsJson();
 	public String getLogoutUrl();
 
+	default public SigningKeyRegistry getSigningKeyRegistry() {
+		return SigningKeyRegistry.fromJson(getSigningKeyAsJson());
+	}
+
 	default public Clock getClock() {
 		return Clock.systemUTC();
 	}
+
+	/**
+	 * @return the name of the token claim holding the Atlassian username, null if tokens don't carry it
+	 */
+	default public String getUsernameClaim() {
+		return null;
+	}
 }
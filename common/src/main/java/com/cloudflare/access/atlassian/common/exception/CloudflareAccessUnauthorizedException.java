@@ -11,4 +11,8 @@ public class CloudflareAccessUnauthorizedException extends RuntimeException {
 	public CloudflareAccessUnauthorizedException(String msg, Throwable cause) {
 		super(msg, cause);
 	}
+
+	protected CloudflareAccessUnauthorizedException(String msg, Throwable cause, boolean writableStackTrace) {
+		super(msg, cause, false, writableStackTrace);
+	}
 }
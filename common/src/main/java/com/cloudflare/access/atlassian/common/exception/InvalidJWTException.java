@@ -1,14 +1,35 @@
 package com.cloudflare.access.atlassian.common.exception;
 
+import com.cloudflare.access.atlassian.common.TokenVerificationResult;
+
 public class InvalidJWTException extends CloudflareAccessUnauthorizedException {
 
 	private static final long serialVersionUID = 2608865350569604759L;
 
+	private final TokenVerificationResult.Status status;
+
 	public InvalidJWTException(String msg) {
 		super(msg);
+		this.status = null;
 	}
 
 	public InvalidJWTException(String msg, Throwable cause) {
 		super(msg, cause);
+		this.status = null;
+	}
+
+	/**
+	 * Creates the exception for a token rejected by the verification, without a stack trace
+	 */
+	public InvalidJWTException(String msg, TokenVerificationResult.Status status) {
+		super(msg, null, false);
+		this.status = status;
+	}
+
+	/**
+	 * @return the reason the token was rejected, null if not raised by the token verification
+	 */
+	public TokenVerificationResult.Status getStatus() {
+		return status;
 	}
 }
@@ -1,24 +1,211 @@
 package com.cloudflare.access.atlassian.common.http;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.entity.ContentType;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.util.EntityUtils;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.cloudflare.access.atlassian.common.exception.HttpRequestException;
 
-public class SimpleHttp {
+/**
+ * Minimal HTTP client sharing a pool of kept alive connections between all the requests.
+ *
+ * Requests are bounded by connect, read and pool acquire timeouts and responses larger
+ * than the configured size are rejected. Instances are meant to be long lived and closed
+ * when no longer used.
+ *
+ * The asynchronous requests run on virtual threads when the JDK provides them, otherwise
+ * on a small bounded pool of daemon threads.
+ */
+public class SimpleHttp implements AutoCloseable {
+
+	private static final Logger log = LoggerFactory.getLogger(SimpleHttp.class);
+
+	public static final Duration DEFAULT_CONNECT_TIMEOUT = Duration.ofSeconds(5);
+	public static final Duration DEFAULT_READ_TIMEOUT = Duration.ofSeconds(10);
+	public static final Duration DEFAULT_POOL_ACQUIRE_TIMEOUT = Duration.ofSeconds(5);
+	public static final int DEFAULT_MAX_RESPONSE_BYTES = 1024 * 1024;
+	private static final Duration MAX_KEEP_ALIVE = Duration.ofSeconds(30);
+	private static final int MAX_CONNECTIONS = 20;
+	private static final int MAX_CONNECTIONS_PER_ROUTE = 5;
+	private static final int ASYNC_THREADS = 4;
+	private static final int ASYNC_QUEUE_SIZE = 100;
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient http;
+	private final int maxResponseBytes;
+	private final ExecutorService asyncExecutor;
+
+	public SimpleHttp() {
+		this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_READ_TIMEOUT, DEFAULT_POOL_ACQUIRE_TIMEOUT, DEFAULT_MAX_RESPONSE_BYTES);
+	}
+
+	public SimpleHttp(Duration connectTimeout, Duration readTimeout, Duration poolAcquireTimeout, int maxResponseBytes) {
+		this.maxResponseBytes = maxResponseBytes;
+		this.connectionManager = new PoolingHttpClientConnectionManager();
+		this.connectionManager.setMaxTotal(MAX_CONNECTIONS);
+		this.connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS_PER_ROUTE);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout((int) connectTimeout.toMillis())
+				.setSocketTimeout((int) readTimeout.toMillis())
+				.setConnectionRequestTimeout((int) poolAcquireTimeout.toMillis())
+				.build();
+
+		this.http = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.setKeepAliveStrategy(keepAliveStrategy())
+				.evictExpiredConnections()
+				.evictIdleConnections(MAX_KEEP_ALIVE.getSeconds(), TimeUnit.SECONDS)
+				.build();
+		this.asyncExecutor = newAsyncExecutor();
+	}
 
 	public String get(String url) {
-		try(CloseableHttpClient http = HttpClients.createMinimal()){
-			CloseableHttpResponse response = http.execute(new HttpGet(url));
-			return EntityUtils.toString(response.getEntity());
+		return get(url, Collections.emptyMap()).getBody();
+	}
+
+	/**
+	 * @param url the URL to request
+	 * @param requestHeaders headers to send with the request, like the conditional request headers
+	 * @return the response, whatever its status code
+	 */
+	public SimpleHttpResponse get(String url, Map<String, String> requestHeaders) {
+		HttpGet request = new HttpGet(url);
+		requestHeaders.forEach(request::setHeader);
+		try(CloseableHttpResponse response = http.execute(request)){
+			Map<String, String> responseHeaders = new HashMap<>();
+			for(Header header : response.getAllHeaders()) {
+				responseHeaders.putIfAbsent(header.getName(), header.getValue());
+			}
+			return new SimpleHttpResponse(response.getStatusLine().getStatusCode(), responseHeaders, readBody(response.getEntity()));
 		} catch (Exception e) {
-			e.printStackTrace();
 			throw new HttpRequestException(String.format("Error executing request to URL '%s': %s", url, e.getMessage()), e);
 		}
 	}
 
+	public CompletableFuture<String> getAsync(String url) {
+		return getAsync(url, Collections.emptyMap()).thenApply(SimpleHttpResponse::getBody);
+	}
+
+	/**
+	 * Same as {@link #get(String, Map)} without blocking the calling thread.
+	 *
+	 * @return a future completed with the response, or exceptionally with an {@link HttpRequestException}
+	 */
+	public CompletableFuture<SimpleHttpResponse> getAsync(String url, Map<String, String> requestHeaders) {
+		try {
+			return CompletableFuture.supplyAsync(() -> get(url, requestHeaders), asyncExecutor);
+		}catch (RejectedExecutionException e) {
+			CompletableFuture<SimpleHttpResponse> rejected = new CompletableFuture<>();
+			rejected.completeExceptionally(new HttpRequestException(String.format("Request to URL '%s' rejected, too many pending requests", url), e));
+			return rejected;
+		}
+	}
+
+	/**
+	 * @return the connections pool usage: leased, available, pending and max connections
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@Override
+	public void close() {
+		asyncExecutor.shutdownNow();
+		try {
+			http.close();
+		} catch (IOException e) {
+			log.warn("Error closing HTTP client: " + e.getMessage(), e);
+		}
+	}
+
+	private String readBody(HttpEntity entity) throws IOException {
+		if(entity == null) {
+			return null;
+		}
+
+		if(entity.getContentLength() > maxResponseBytes) {
+			throw new IOException(String.format("Response of %d bytes exceeds the limit of %d bytes", entity.getContentLength(), maxResponseBytes));
+		}
+
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		try(InputStream content = entity.getContent()){
+			byte[] buffer = new byte[8192];
+			int read;
+			while((read = content.read(buffer)) != -1) {
+				if(body.size() + read > maxResponseBytes) {
+					throw new IOException(String.format("Response exceeds the limit of %d bytes", maxResponseBytes));
+				}
+				body.write(buffer, 0, read);
+			}
+		}
+		return new String(body.toByteArray(), getCharset(entity));
+	}
+
+	private Charset getCharset(HttpEntity entity) {
+		ContentType contentType = ContentType.get(entity);
+		if(contentType == null || contentType.getCharset() == null) {
+			return StandardCharsets.UTF_8;
+		}
+		return contentType.getCharset();
+	}
 
+	private static ExecutorService newAsyncExecutor() {
+		try {
+			Method newVirtualThreadExecutor = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) newVirtualThreadExecutor.invoke(null);
+		}catch (ReflectiveOperationException | RuntimeException e) {
+			log.debug("Virtual threads not available, using a thread pool for asynchronous requests");
+		}
+
+		AtomicInteger threadCount = new AtomicInteger();
+		ThreadPoolExecutor executor = new ThreadPoolExecutor(ASYNC_THREADS, ASYNC_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(ASYNC_QUEUE_SIZE), runnable -> {
+			Thread thread = new Thread(runnable, "cloudflare-access-http-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	private static ConnectionKeepAliveStrategy keepAliveStrategy() {
+		return (response, context) -> {
+			long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+			if(keepAlive <= 0 || keepAlive > MAX_KEEP_ALIVE.toMillis()) {
+				return MAX_KEEP_ALIVE.toMillis();
+			}
+			return keepAlive;
+		};
+	}
 }
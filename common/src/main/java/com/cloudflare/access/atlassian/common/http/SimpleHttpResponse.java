@@ -0,0 +1,53 @@
+package com.cloudflare.access.atlassian.common.http;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Status, headers and body of a response received by {@link SimpleHttp}.
+ */
+public class SimpleHttpResponse {
+
+	public static final int NOT_MODIFIED = 304;
+
+	private final int status;
+	private final Map<String, String> headers;
+	private final String body;
+
+	public SimpleHttpResponse(int status, Map<String, String> headers, String body) {
+		Map<String, String> caseInsensitiveHeaders = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+		caseInsensitiveHeaders.putAll(headers);
+		this.status = status;
+		this.headers = Collections.unmodifiableMap(caseInsensitiveHeaders);
+		this.body = body;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public boolean isSuccessful() {
+		return status >= 200 && status < 300;
+	}
+
+	public boolean isNotModified() {
+		return status == NOT_MODIFIED;
+	}
+
+	/**
+	 * @param name the header name, case insensitive
+	 * @return the first value received for the header, if any
+	 */
+	public Optional<String> getHeader(String name) {
+		return Optional.ofNullable(headers.get(name));
+	}
+
+	/**
+	 * @return the response body, null for responses without a body like a 304
+	 */
+	public String getBody() {
+		return body;
+	}
+}
@@ -2,14 +2,27 @@ package com.cloudflare.access.atlassian.common;
 
 import static org.hamcrest.Matchers.*;
 import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
+import com.cloudflare.access.atlassian.common.exception.CertificateProcessingException;
 import com.cloudflare.access.atlassian.common.http.SimpleHttp;
+import com.cloudflare.access.atlassian.common.http.SimpleHttpResponse;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
@@ -19,7 +32,7 @@ public class CertificateProviderTest {
 	public void testProcessingCertificateFromUrl() throws IOException {
 		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
 		SimpleHttp httpMock = mock(SimpleHttp.class);
-		when(httpMock.get(url)).thenReturn(
+		when(httpMock.getAsync(eq(url), anyHeaders())).thenReturn(ok(
 				"{\n" +
 				"  \"keys\": [\n" +
 				"    {\n" +
@@ -40,7 +53,7 @@ public class CertificateProviderTest {
 				"    }\n" +
 				"  ]\n" +
 				"}"
-		);
+		));
 		CertificateProvider certificateProvider = new CertificateProvider(httpMock);
 		List<String> certificates = certificateProvider.getCerticatesAsJson(url);
 
@@ -56,5 +69,154 @@ public class CertificateProviderTest {
 		assertThat(cert1.get("n").asText(null), equalTo("uEiwOJS9VDh_k2u21TI8zBUuDCY9rDjc9btqJ-assMhJv-0O17kw4nV4kBivswDfw8z6XMeU_lurbgc1_cWQdpQk03CPSLzk3NJLDNmfnBGQApHXxAyl8ba_-0SaAuEchwdcWD9bfuV-Dru2Qkg5hfVon7_aTOWsYF2L3wXOWRxUfL35TvsN6MQYBrdZ4IjaQcl2LDY3ugSV1LK8IpAR6JCFuNzro_CRuJR8BvtZArUC6k-rIzl9yQOHuvkoYHaXtMyFyrojCAZGG-NqREl0MfpuZQ2vgFUPRtxAHTb8CETqkXgKCMJHumetvcDnrIKwqyimJYfFbHbIYzmzxYKeYQ"));
 	}
 
+	@Test
+	public void shouldServeSnapshotAndRefreshInBackground() {
+		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
+		SimpleHttp httpMock = mock(SimpleHttp.class);
+		when(httpMock.getAsync(eq(url), anyHeaders())).thenReturn(ok("{\"keys\": []}"));
+		MutableClock clock = new MutableClock(Instant.parse("2019-01-01T10:00:00Z"));
+		ManualScheduler scheduler = new ManualScheduler();
+
+		try(CertificateProvider certificateProvider = new CertificateProvider(httpMock, Duration.ofMinutes(1), Duration.ofHours(1), clock, scheduler)){
+			certificateProvider.getSigningKeyRegistry(url);
+			certificateProvider.getSigningKeyRegistry(url);
+			verify(httpMock, times(1)).getAsync(eq(url), anyHeaders());
+			assertThat(scheduler.getScheduledDelays(), contains(Duration.ofMinutes(1)));
+
+			clock.advance(Duration.ofMinutes(1));
+			scheduler.runNext();
+			verify(httpMock, times(2)).getAsync(eq(url), anyHeaders());
+			assertThat(scheduler.getScheduledDelays(), contains(Duration.ofMinutes(1)));
+		}
+	}
+
+	@Test
+	public void shouldKeepPreviousKeysWhenRefreshFails() {
+		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
+		SimpleHttp httpMock = mock(SimpleHttp.class);
+		when(httpMock.getAsync(eq(url), anyHeaders()))
+			.thenReturn(ok("{\"keys\": [{\"kid\": \"somekid\"}]}"))
+			.thenReturn(failed(new RuntimeException("certs unavailable")));
+		MutableClock clock = new MutableClock(Instant.parse("2019-01-01T10:00:00Z"));
+		ManualScheduler scheduler = new ManualScheduler();
+
+		try(CertificateProvider certificateProvider = new CertificateProvider(httpMock, Duration.ofMinutes(1), Duration.ofHours(1), clock, scheduler)){
+			assertThat(certificateProvider.getCerticatesAsJson(url), hasSize(1));
+
+			clock.advance(Duration.ofMinutes(1));
+			scheduler.runNext();
+			verify(httpMock, times(2)).getAsync(eq(url), anyHeaders());
+			assertThat(certificateProvider.getCircuitBreakerState(url), equalTo(CircuitBreaker.State.OPEN));
+			assertThat(certificateProvider.getCerticatesAsJson(url), hasSize(1));
+			assertThat(scheduler.getScheduledDelays(), contains(Duration.ofSeconds(5)));
+		}
+	}
+
+	@Test
+	public void shouldServeLastKnownKeysOnlyDuringGracePeriod() {
+		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
+		SimpleHttp httpMock = mock(SimpleHttp.class);
+		when(httpMock.getAsync(eq(url), anyHeaders()))
+			.thenReturn(ok("{\"keys\": [{\"kid\": \"somekid\"}]}"))
+			.thenReturn(failed(new RuntimeException("certs unavailable")));
+		MutableClock clock = new MutableClock(Instant.parse("2019-01-01T10:00:00Z"));
+
+		try(CertificateProvider certificateProvider = new CertificateProvider(httpMock, Duration.ofMinutes(1), Duration.ofMinutes(10), clock, new ManualScheduler())){
+			assertThat(certificateProvider.getCerticatesAsJson(url), hasSize(1));
+
+			clock.advance(Duration.ofMinutes(11));
+			assertThat(certificateProvider.getCerticatesAsJson(url), hasSize(1));
+
+			clock.advance(Duration.ofMinutes(1));
+			try {
+				certificateProvider.getCerticatesAsJson(url);
+				fail("Keys older than the grace period should not be served");
+			}catch (CertificateProcessingException e) {
+				assertThat(certificateProvider.getCircuitBreakerState(url), equalTo(CircuitBreaker.State.OPEN));
+			}
+
+			try {
+				certificateProvider.getCerticatesAsJson(url);
+				fail("Keys older than the grace period should not be served");
+			}catch (CertificateProcessingException e) {
+				verify(httpMock, times(2)).getAsync(eq(url), anyHeaders());
+			}
+		}
+	}
 
+	@Test
+	public void shouldRevalidateWithEtagAndKeepKeysWhenNotModified() {
+		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
+		Map<String, String> responseHeaders = new HashMap<>();
+		responseHeaders.put("ETag", "\"v1\"");
+		responseHeaders.put("Cache-Control", "public, max-age=1");
+		SimpleHttp httpMock = mock(SimpleHttp.class);
+		when(httpMock.getAsync(eq(url), eq(Collections.<String, String>emptyMap())))
+			.thenReturn(CompletableFuture.completedFuture(new SimpleHttpResponse(200, responseHeaders, "{\"keys\": [{\"kid\": \"somekid\"}]}")));
+		when(httpMock.getAsync(eq(url), eq(Collections.singletonMap("If-None-Match", "\"v1\""))))
+			.thenReturn(CompletableFuture.completedFuture(new SimpleHttpResponse(304, responseHeaders, null)));
+		MutableClock clock = new MutableClock(Instant.parse("2019-01-01T10:00:00Z"));
+
+		try(CertificateProvider certificateProvider = new CertificateProvider(httpMock, Duration.ofMinutes(1), Duration.ZERO, clock, new ManualScheduler())){
+			SigningKeyRegistry registry = certificateProvider.getSigningKeyRegistry(url);
+
+			clock.advance(Duration.ofSeconds(11));
+			assertThat(certificateProvider.getSigningKeyRegistry(url), sameInstance(registry));
+			verify(httpMock).getAsync(eq(url), eq(Collections.singletonMap("If-None-Match", "\"v1\"")));
+		}
+	}
+
+	@Test
+	public void shouldNotSpinRefreshesWhileHalfOpenTrialRuns() throws Exception {
+		final String url = "https://cfaplugin.oraculo.io/cdn-cgi/access/certs";
+		CompletableFuture<SimpleHttpResponse> pendingTrial = new CompletableFuture<>();
+		CountDownLatch trialStarted = new CountDownLatch(1);
+		SimpleHttp httpMock = mock(SimpleHttp.class);
+		when(httpMock.getAsync(eq(url), anyHeaders()))
+			.thenReturn(ok("{\"keys\": [{\"kid\": \"somekid\"}]}"))
+			.thenReturn(failed(new RuntimeException("certs unavailable")))
+			.thenAnswer(invocation -> {
+				trialStarted.countDown();
+				return pendingTrial;
+			});
+		MutableClock clock = new MutableClock(Instant.parse("2019-01-01T10:00:00Z"));
+		ManualScheduler scheduler = new ManualScheduler();
+		ExecutorService requestThread = Executors.newSingleThreadExecutor();
+
+		try(CertificateProvider certificateProvider = new CertificateProvider(httpMock, Duration.ofMinutes(1), Duration.ZERO, clock, scheduler)){
+			certificateProvider.getSigningKeyRegistry(url);
+
+			clock.advance(Duration.ofMinutes(1));
+			scheduler.runNext();
+			assertThat(certificateProvider.getCircuitBreakerState(url), equalTo(CircuitBreaker.State.OPEN));
+			assertThat(scheduler.getScheduledDelays(), contains(Duration.ofSeconds(5)));
+
+			//The backoff elapsed, a request starts the half open trial and waits for it
+			clock.advance(Duration.ofSeconds(6));
+			requestThread.submit(() -> certificateProvider.getSigningKeyRegistry(url));
+			assertThat(trialStarted.await(5, TimeUnit.SECONDS), equalTo(true));
+			assertThat(certificateProvider.getCircuitBreakerState(url), equalTo(CircuitBreaker.State.HALF_OPEN));
+
+			scheduler.runNext();
+			assertThat(scheduler.getScheduledDelays(), contains(Duration.ofMinutes(1)));
+			verify(httpMock, times(3)).getAsync(eq(url), anyHeaders());
+		}finally {
+			pendingTrial.complete(new SimpleHttpResponse(200, Collections.emptyMap(), "{\"keys\": []}"));
+			requestThread.shutdownNow();
+		}
+	}
+
+	private static Map<String, String> anyHeaders() {
+		return anyMapOf(String.class, String.class);
+	}
+
+	private static CompletableFuture<SimpleHttpResponse> ok(String body) {
+		return CompletableFuture.completedFuture(new SimpleHttpResponse(200, Collections.emptyMap(), body));
+	}
+
+	private static CompletableFuture<SimpleHttpResponse> failed(Exception cause) {
+		CompletableFuture<SimpleHttpResponse> failed = new CompletableFuture<>();
+		failed.completeExceptionally(cause);
+		return failed;
+	}
 }
@@ -0,0 +1,51 @@
+package com.cloudflare.access.atlassian.common;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private static final Instant NOW = Instant.parse("2019-01-01T10:00:00Z");
+
+	@Test
+	public void shouldOpenWithExponentialBackoff() {
+		CircuitBreaker breaker = new CircuitBreaker(Duration.ofSeconds(5), Duration.ofSeconds(15), Clock.fixed(NOW, ZoneOffset.UTC));
+
+		breaker.recordFailure();
+		assertThat(breaker.getState(), equalTo(CircuitBreaker.State.OPEN));
+		assertThat(breaker.allowRequest(), is(false));
+		assertThat(breaker.getRetryAt(), equalTo(NOW.plusSeconds(5)));
+
+		breaker.recordFailure();
+		assertThat(breaker.getRetryAt(), equalTo(NOW.plusSeconds(10)));
+
+		breaker.recordFailure();
+		assertThat(breaker.getRetryAt(), equalTo(NOW.plusSeconds(15)));
+		assertThat(breaker.getConsecutiveFailures(), equalTo(3));
+	}
+
+	@Test
+	public void shouldAllowSingleTrialAfterBackoffAndCloseOnSuccess() {
+		MutableClock clock = new MutableClock(NOW);
+		CircuitBreaker breaker = new CircuitBreaker(Duration.ofSeconds(5), Duration.ofSeconds(15), clock);
+		breaker.recordFailure();
+
+		clock.advance(Duration.ofSeconds(5));
+		assertThat(breaker.allowRequest(), is(true));
+		assertThat(breaker.getState(), equalTo(CircuitBreaker.State.HALF_OPEN));
+		assertThat(breaker.allowRequest(), is(false));
+
+		breaker.recordSuccess();
+		assertThat(breaker.getState(), equalTo(CircuitBreaker.State.CLOSED));
+		assertThat(breaker.getConsecutiveFailures(), equalTo(0));
+		assertThat(breaker.allowRequest(), is(true));
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.cloudflare.access.atlassian.common;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Delayed;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Scheduler keeping the scheduled tasks until the test runs them, in scheduling order, on the
+ * test thread, so time driven behaviour doesn't depend on the speed of the machine.
+ */
+class ManualScheduler extends AbstractExecutorService implements ScheduledExecutorService {
+
+	private final Deque<ScheduledTask<?>> tasks = new ArrayDeque<>();
+	private volatile boolean shutdown;
+
+	/**
+	 * Runs the oldest scheduled task, whatever its delay.
+	 */
+	void runNext() {
+		ScheduledTask<?> task;
+		synchronized (tasks) {
+			task = tasks.poll();
+		}
+		if(task == null) {
+			throw new IllegalStateException("No task scheduled");
+		}
+		task.run();
+		try {
+			task.get();
+		}catch (InterruptedException | ExecutionException e) {
+			throw new AssertionError("Scheduled task failed", e);
+		}
+	}
+
+	/**
+	 * @return the delays of the tasks waiting to run, in scheduling order
+	 */
+	List<Duration> getScheduledDelays() {
+		synchronized (tasks) {
+			List<Duration> delays = new ArrayList<>();
+			for(ScheduledTask<?> task : tasks) {
+				delays.add(task.delay);
+			}
+			return delays;
+		}
+	}
+
+	@Override
+	public ScheduledFuture<?> schedule(Runnable command, long delay, TimeUnit unit) {
+		return schedule(Executors.callable(command), delay, unit);
+	}
+
+	@Override
+	public <V> ScheduledFuture<V> schedule(Callable<V> callable, long delay, TimeUnit unit) {
+		if(shutdown) {
+			throw new RejectedExecutionException("Scheduler is shut down");
+		}
+		ScheduledTask<V> task = new ScheduledTask<>(callable, Duration.ofNanos(unit.toNanos(delay)));
+		synchronized (tasks) {
+			tasks.add(task);
+		}
+		return task;
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleAtFixedRate(Runnable command, long initialDelay, long period, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public ScheduledFuture<?> scheduleWithFixedDelay(Runnable command, long initialDelay, long delay, TimeUnit unit) {
+		throw new UnsupportedOperationException();
+	}
+
+	@Override
+	public void execute(Runnable command) {
+		schedule(command, 0, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public void shutdown() {
+		shutdown = true;
+	}
+
+	@Override
+	public List<Runnable> shutdownNow() {
+		shutdown = true;
+		synchronized (tasks) {
+			List<Runnable> pending = new ArrayList<>(tasks);
+			tasks.clear();
+			return pending;
+		}
+	}
+
+	@Override
+	public boolean isShutdown() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean isTerminated() {
+		return shutdown;
+	}
+
+	@Override
+	public boolean awaitTermination(long timeout, TimeUnit unit) {
+		return shutdown;
+	}
+
+	private static class ScheduledTask<V> extends FutureTask<V> implements ScheduledFuture<V> {
+		private final Duration delay;
+
+		ScheduledTask(Callable<V> callable, Duration delay) {
+			super(callable);
+			this.delay = delay;
+		}
+
+		@Override
+		public long getDelay(TimeUnit unit) {
+			return unit.convert(delay.toNanos(), TimeUnit.NANOSECONDS);
+		}
+
+		@Override
+		public int compareTo(Delayed other) {
+			return Long.compare(getDelay(TimeUnit.NANOSECONDS), other.getDelay(TimeUnit.NANOSECONDS));
+		}
+	}
+}
@@ -0,0 +1,74 @@
+package com.cloudflare.access.atlassian.common;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.cloudflare.access.atlassian.common.RequestPathClassifier.RuleType;
+
+public class RequestPathClassifierTest {
+
+	@Test
+	public void testDefaultRules() {
+		RequestPathClassifier classifier = new RequestPathClassifier(RequestPathClassifier.DEFAULT_RULES);
+
+		assertThat(classifier.matches("/s/d41d8cd98f00b204e9800998ecf8427e-CDN/en_US/_/download/batch/jira.webresources:icons/jira.webresources:icons"), equalTo(true));
+		assertThat(classifier.matches("/download/contextbatch/css/_super/batch.css"), equalTo(true));
+		assertThat(classifier.matches("/images/logo.SVG"), equalTo(true));
+		assertThat(classifier.matches("/fonts/adgs-icons.woff2"), equalTo(true));
+		assertThat(classifier.matches("/status"), equalTo(true));
+
+		assertThat(classifier.matches("/status/other"), equalTo(false));
+		assertThat(classifier.matches("/secure/Dashboard.jspa"), equalTo(false));
+		assertThat(classifier.matches("/browse/PROJ-1"), equalTo(false));
+		assertThat(classifier.matches("/rest/api/2/myself"), equalTo(false));
+		assertThat(classifier.matches(""), equalTo(false));
+	}
+
+	@Test
+	public void testPathStartSkipsContextPath() {
+		RequestPathClassifier classifier = new RequestPathClassifier(Arrays.asList("/s/*", "/status"));
+		String contextPath = "/jira";
+
+		assertThat(classifier.classify("/jira/s/batch.js", contextPath.length()).getType(), equalTo(RuleType.PREFIX));
+		assertThat(classifier.classify("/jira/status", contextPath.length()).getType(), equalTo(RuleType.EXACT));
+		assertThat(classifier.classify("/jira/s/batch.js", 0), nullValue());
+	}
+
+	@Test
+	public void testGlobRules() {
+		RequestPathClassifier classifier = new RequestPathClassifier(Arrays.asList("/rest/*/health", "/files/?/*.txt"));
+
+		assertThat(classifier.matches("/rest/api/latest/health"), equalTo(true));
+		assertThat(classifier.matches("/files/a/notes.txt"), equalTo(true));
+		assertThat(classifier.matches("/rest/api/latest/health/details"), equalTo(false));
+		assertThat(classifier.matches("/files/ab/notes.txt"), equalTo(false));
+	}
+
+	@Test
+	public void testHitCountsPerRule() {
+		RequestPathClassifier classifier = new RequestPathClassifier(Arrays.asList("*.js", "*.css", "/s/*"));
+
+		classifier.matches("/app.js");
+		classifier.matches("/vendor.JS");
+		classifier.matches("/s/batch.css");
+		classifier.matches("/secure/Dashboard.jspa");
+
+		assertThat(classifier.getHitCounts().get("*.js"), equalTo(2L));
+		assertThat(classifier.getHitCounts().get("*.css"), equalTo(0L));
+		assertThat(classifier.getHitCounts().get("/s/*"), equalTo(1L));
+	}
+
+	@Test
+	public void testRulesValidation() {
+		assertThat(RequestPathClassifier.isValid(null), equalTo(true));
+		assertThat(RequestPathClassifier.isValid("/s/*\n*.svg, /rest/*/health"), equalTo(true));
+		assertThat(RequestPathClassifier.isValid("*"), equalTo(false));
+		assertThat(RequestPathClassifier.isValid("/s/*\nstatic/*"), equalTo(false));
+		assertThat(RequestPathClassifier.parseRules(" /s/*,\n\n*.svg "), equalTo(Arrays.asList("/s/*", "*.svg")));
+	}
+}
@@ -0,0 +1,37 @@
+package com.cloudflare.access.atlassian.common;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+public class SigningKeyRegistryTest {
+
+	@Test
+	public void shouldIndexVerifiersByKeyId() {
+		List<String> keysAsJson = new TestVerificationContext().getSigningKeyAsJson();
+
+		SigningKeyRegistry registry = SigningKeyRegistry.fromJson(keysAsJson);
+
+		assertThat(registry.getVerifiers(), hasSize(4));
+		assertThat(registry.getKeyIds(), hasSize(4));
+		assertThat(registry.getVerifier("bccdf99ac336c9278e3c7ac71bebcbe467bbbfd1fb013c84c93889da077b9d79").isPresent(), is(true));
+		assertThat(registry.getVerifier("unknownkid").isPresent(), is(false));
+		assertThat(registry.getKeysAsJson(), equalTo(keysAsJson));
+	}
+
+	@Test
+	public void shouldIgnoreKeysThatCannotBeParsed() {
+		List<String> keysAsJson = new ArrayList<>(new TestVerificationContext().getSigningKeyAsJson());
+		keysAsJson.add("{ not a json key");
+
+		SigningKeyRegistry registry = SigningKeyRegistry.fromJson(keysAsJson);
+
+		assertThat(registry.getVerifiers(), hasSize(4));
+		assertThat(registry.isEmpty(), is(false));
+	}
+
+}
@@ -16,6 +16,8 @@ class TestVerificationContext implements AuthenticationContext{
 	private String issuer;
 	private List<String> jwkJsons;
 	private Clock clock;
+	private int signingKeyLookups;
+	private String usernameClaim;
 
 	public TestVerificationContext() {
 		super();
@@ -73,6 +75,11 @@ class TestVerificationContext implements AuthenticationContext{
 		return this;
 	}
 
+	TestVerificationContext withUsernameClaim(String usernameClaim) {
+		this.usernameClaim = usernameClaim;
+		return this;
+	}
+
 	TestVerificationContext withJwkJson(String jwkJson) {
 		this.jwkJsons = Collections.singletonList(jwkJson);
 		return this;
@@ -93,6 +100,16 @@ class TestVerificationContext implements AuthenticationContext{
 		return this.jwkJsons;
 	}
 
+	@Override
+	public SigningKeyRegistry getSigningKeyRegistry() {
+		this.signingKeyLookups++;
+		return AuthenticationContext.super.getSigningKeyRegistry();
+	}
+
+	int getSigningKeyLookups() {
+		return this.signingKeyLookups;
+	}
+
 	@Override
 	public String getLogoutUrl() {
 		return "unusedhere";
@@ -103,4 +120,9 @@ class TestVerificationContext implements AuthenticationContext{
 		return this.clock;
 	}
 
+	@Override
+	public String getUsernameClaim() {
+		return this.usernameClaim;
+	}
+
 }
\ No newline at end of file
@@ -1,5 +1,9 @@
 package com.cloudflare.access.atlassian.common;
 
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
 import java.time.Clock;
 import java.time.LocalDateTime;
 import java.time.Month;
@@ -16,6 +20,7 @@ import org.junit.Test;
 import org.junit.rules.ExpectedException;
 import org.junit.runner.RunWith;
 
+import com.cloudflare.access.atlassian.common.TokenVerificationResult.Status;
 import com.cloudflare.access.atlassian.common.exception.InvalidJWTException;
 import com.tngtech.java.junit.dataprovider.DataProvider;
 import com.tngtech.java.junit.dataprovider.DataProviderRunner;
@@ -83,6 +88,33 @@ public class TokenVerifierTest {
 		tokenVerifier.validate(tokenForFirstSigningKey);
 	}
 
+	@Test
+	public void shouldRejectExpiredTokenBeforeVerifyingSignature() {
+		LocalDateTime afterExpiry = LocalDateTime.of(2018, Month.MAY, 11, 20, 31);
+		TestVerificationContext context = new TestVerificationContext().withClock(Clock.fixed(afterExpiry.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+
+		try {
+			new TokenVerifier(context).validate(tokenForFirstSigningKey);
+		}catch (InvalidJWTException e) {
+			assertThat(context.getSigningKeyLookups(), equalTo(0));
+			return;
+		}
+		fail("Expired token should not be accepted");
+	}
+
+	@Test
+	public void shouldRejectWrongAudienceBeforeVerifyingSignature() {
+		TestVerificationContext context = new TestVerificationContext().withAudience("anotheraudience");
+
+		try {
+			new TokenVerifier(context).validate(tokenForFirstSigningKey);
+		}catch (InvalidJWTException e) {
+			assertThat(context.getSigningKeyLookups(), equalTo(0));
+			return;
+		}
+		fail("Token for another audience should not be accepted");
+	}
+
 	@Test
 	@DataProvider(value={ "null", "", "badvalue", "eyJhbGciOiJSUzI1NiIsImtpZCI6ImJjY2RmOTlhYzMzNmM5Mjc4ZTNjN2FjNzFiZWJjYmU0NjdiYmJmZDFmYjAxM2M4NGM5Mzg4OWRhMDc3YjlkNzkiLCJ0eXAiOiJKV1QifQ" }, convertNulls=true)
 	public void shouldNotAcceptMalformedTokens(String badToken) {
@@ -127,6 +159,83 @@ public class TokenVerifierTest {
 		tokenVerifier.validate(tokenForSecondSigningKey);
 	}
 
+	@Test
+	public void shouldReportRejectionReasonWithoutThrowing() {
+		LocalDateTime afterExpiry = LocalDateTime.of(2018, Month.MAY, 11, 20, 31);
+		Clock badClock = Clock.fixed(afterExpiry.toInstant(ZoneOffset.UTC), ZoneOffset.UTC);
+		String otherKeyJwkJson = new TestVerificationContext().getSigningKeyAsJson().get(1);
+
+		assertThat(new TokenVerifier(new TestVerificationContext()).verify(tokenForFirstSigningKey).getStatus(), equalTo(Status.VALID));
+		assertThat(new TokenVerifier(new TestVerificationContext()).verify("badvalue").getStatus(), equalTo(Status.MALFORMED));
+		assertThat(new TokenVerifier(new TestVerificationContext().withClock(badClock)).verify(tokenForFirstSigningKey).getStatus(), equalTo(Status.EXPIRED));
+		assertThat(new TokenVerifier(new TestVerificationContext().withAudience("badaudience")).verify(tokenForFirstSigningKey).getStatus(), equalTo(Status.WRONG_AUDIENCE));
+		assertThat(new TokenVerifier(new TestVerificationContext().withIssuer("badvalue")).verify(tokenForFirstSigningKey).getStatus(), equalTo(Status.WRONG_ISSUER));
+		assertThat(new TokenVerifier(new TestVerificationContext().withJwkJson(otherKeyJwkJson)).verify(tokenForFirstSigningKey).getStatus(), equalTo(Status.UNKNOWN_KEY));
+	}
+
+	@Test
+	public void shouldThrowRejectionWithoutStackTrace() {
+		try {
+			new TokenVerifier(new TestVerificationContext().withAudience("badaudience")).validate(tokenForFirstSigningKey);
+		}catch (InvalidJWTException e) {
+			assertThat(e.getStatus(), equalTo(Status.WRONG_AUDIENCE));
+			assertThat(e.getStackTrace().length, equalTo(0));
+			return;
+		}
+		fail("Token for another audience should not be accepted");
+	}
+
+	@Test
+	public void shouldServeRepeatedTokenFromVerifiedTokenCache() {
+		VerifiedTokenCache cache = new VerifiedTokenCache(10);
+		TokenVerifier tokenVerifier = new TokenVerifier(new TestVerificationContext(), cache);
+
+		VerifiedToken first = tokenVerifier.getVerifiedToken(tokenForFirstSigningKey);
+		VerifiedToken second = tokenVerifier.getVerifiedToken(tokenForFirstSigningKey);
+
+		assertThat(second, sameInstance(first));
+		assertThat(first.getEmail(), equalTo("felipe.nascimento1@gmail.com"));
+		assertThat(cache.getStats().hitCount(), equalTo(1L));
+		assertThat(cache.getStats().missCount(), equalTo(1L));
+	}
+
+	@Test
+	public void shouldReadUsernameFromConfiguredClaim() {
+		VerifiedToken withoutClaim = new TokenVerifier(new TestVerificationContext()).getVerifiedToken(tokenForFirstSigningKey);
+		VerifiedToken withClaim = new TokenVerifier(new TestVerificationContext().withUsernameClaim("sub")).getVerifiedToken(tokenForFirstSigningKey);
+		VerifiedToken withMissingClaim = new TokenVerifier(new TestVerificationContext().withUsernameClaim("username")).getVerifiedToken(tokenForFirstSigningKey);
+
+		assertThat(withoutClaim.getUsername(), nullValue());
+		assertThat(withClaim.getUsername(), equalTo("4b82b38a-9236-493d-8752-580ad000ea3e"));
+		assertThat(withMissingClaim.getUsername(), nullValue());
+	}
+
+	@Test
+	public void shouldNotServeExpiredTokenFromVerifiedTokenCache() {
+		expectedException.expect(new ExceptionMatcher (InvalidJWTException.class, expectedFailureMessage));
+
+		VerifiedTokenCache cache = new VerifiedTokenCache(10);
+		TestVerificationContext context = new TestVerificationContext();
+		new TokenVerifier(context, cache).getVerifiedToken(tokenForFirstSigningKey);
+
+		LocalDateTime afterExpiry = LocalDateTime.of(2018, Month.MAY, 11, 20, 31);
+		context.withClock(Clock.fixed(afterExpiry.toInstant(ZoneOffset.UTC), ZoneOffset.UTC));
+		new TokenVerifier(context, cache).getVerifiedToken(tokenForFirstSigningKey);
+	}
+
+	@Test
+	public void shouldNotServeTokenFromVerifiedTokenCacheAfterKeyRotation() {
+		VerifiedTokenCache cache = new VerifiedTokenCache(10);
+		TestVerificationContext context = new TestVerificationContext();
+		new TokenVerifier(context, cache).getVerifiedToken(tokenForFirstSigningKey);
+
+		String rotatedJwkJson = context.getSigningKeyAsJson().get(1);
+		context.withJwkJson(rotatedJwkJson);
+
+		assertThat(cache.get(context, tokenForFirstSigningKey).isPresent(), is(false));
+		assertThat(cache.size(), equalTo(0L));
+	}
+
 	private static class ExceptionMatcher extends BaseMatcher<Exception> {
 		private Class<?> type;
 		private String message;
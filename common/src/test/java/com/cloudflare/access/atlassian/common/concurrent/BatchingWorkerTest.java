@@ -0,0 +1,97 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class BatchingWorkerTest {
+
+	@Test
+	public void shouldHandleItemsInSubmissionOrder() {
+		List<Integer> handled = Collections.synchronizedList(new ArrayList<>());
+		List<Integer> batchSizes = Collections.synchronizedList(new ArrayList<>());
+		BatchingWorker<Integer> worker = new BatchingWorker<>("test-worker", 100, 3, batch -> {
+			batchSizes.add(batch.size());
+			handled.addAll(batch);
+		});
+
+		for(int i = 1; i <= 7; i++) {
+			assertThat(worker.submit(i), equalTo(true));
+		}
+		worker.start();
+		assertThat(worker.shutdown(Duration.ofSeconds(5)), equalTo(0));
+
+		assertThat(handled, contains(1, 2, 3, 4, 5, 6, 7));
+		assertThat(batchSizes, contains(3, 3, 1));
+	}
+
+	@Test
+	public void shouldRejectItemsWhenFull() {
+		BatchingWorker<String> worker = new BatchingWorker<>("test-worker", 2, 10, batch -> {});
+
+		assertThat(worker.submit("a"), equalTo(true));
+		assertThat(worker.submit("b"), equalTo(true));
+		assertThat(worker.submit("c"), equalTo(false));
+		assertThat(worker.getQueuedCount(), equalTo(2));
+	}
+
+	@Test
+	public void shouldDrainQueuedItemsOnShutdownAndRejectNewOnes() throws Exception {
+		CountDownLatch firstBatchStarted = new CountDownLatch(1);
+		CountDownLatch releaseFirstBatch = new CountDownLatch(1);
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		BatchingWorker<String> worker = new BatchingWorker<>("test-worker", 10, 1, batch -> {
+			if(batch.contains("first")) {
+				firstBatchStarted.countDown();
+				await(releaseFirstBatch);
+			}
+			handled.addAll(batch);
+		});
+		worker.start();
+
+		worker.submit("first");
+		firstBatchStarted.await(5, TimeUnit.SECONDS);
+		worker.submit("second");
+		worker.submit("third");
+		releaseFirstBatch.countDown();
+
+		assertThat(worker.shutdown(Duration.ofSeconds(5)), equalTo(0));
+		assertThat(handled, contains("first", "second", "third"));
+		assertThat(worker.submit("late"), equalTo(false));
+	}
+
+	@Test
+	public void shouldKeepWorkingAfterFailedBatch() {
+		List<String> handled = Collections.synchronizedList(new ArrayList<>());
+		BatchingWorker<String> worker = new BatchingWorker<>("test-worker", 10, 1, batch -> {
+			if(batch.contains("broken")) {
+				throw new IllegalStateException("broken batch");
+			}
+			handled.addAll(batch);
+		});
+
+		worker.submit("broken");
+		worker.submit("fine");
+		worker.start();
+		worker.shutdown(Duration.ofSeconds(5));
+
+		assertThat(handled, contains("fine"));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
@@ -0,0 +1,52 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+public class ComponentHandleTest {
+
+	@Test
+	public void shouldResolveOnlyOnce() {
+		AtomicInteger resolutions = new AtomicInteger();
+		Object component = new Object();
+		ComponentHandle<Object> handle = new ComponentHandle<>("component", () -> {
+			resolutions.incrementAndGet();
+			return component;
+		});
+
+		assertThat(handle.isResolved(), equalTo(false));
+		assertThat(handle.get(), sameInstance(component));
+		assertThat(handle.get(), sameInstance(component));
+		assertThat(resolutions.get(), equalTo(1));
+	}
+
+	@Test
+	public void shouldResolveAgainAfterReset() {
+		AtomicInteger resolutions = new AtomicInteger();
+		ComponentHandle<Integer> handle = new ComponentHandle<>("component", resolutions::incrementAndGet);
+
+		assertThat(handle.get(), equalTo(1));
+		handle.reset();
+		assertThat(handle.get(), equalTo(2));
+	}
+
+	@Test
+	public void shouldRetryUnavailableComponent() {
+		AtomicInteger resolutions = new AtomicInteger();
+		ComponentHandle<String> handle = new ComponentHandle<>("component", () -> resolutions.incrementAndGet() > 1 ? "available" : null);
+
+		try {
+			handle.get();
+			fail("Unavailable component should not be returned");
+		}catch (IllegalStateException e) {
+			assertThat(e.getMessage().contains("component"), equalTo(true));
+		}
+		assertThat(handle.get(), equalTo("available"));
+	}
+}
@@ -0,0 +1,141 @@
+package com.cloudflare.access.atlassian.common.concurrent;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.cloudflare.access.atlassian.common.exception.CloudflareAccessUnauthorizedException;
+
+public class SingleFlightTest {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(10);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentCallersShouldShareOneCall() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>(Duration.ofSeconds(5));
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch callStarted = new CountDownLatch(1);
+		CountDownLatch releaseCall = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(() -> singleFlight.execute("john@example.com", () -> {
+			calls.incrementAndGet();
+			callStarted.countDown();
+			await(releaseCall);
+			return "john";
+		}));
+		callStarted.await(5, TimeUnit.SECONDS);
+
+		List<Future<String>> waiters = new ArrayList<>();
+		for(int i = 0; i < 9; i++) {
+			waiters.add(executor.submit(() -> singleFlight.execute("john@example.com", () -> {
+				calls.incrementAndGet();
+				return "john";
+			})));
+		}
+		Thread.sleep(100);
+		releaseCall.countDown();
+
+		assertThat(leader.get(5, TimeUnit.SECONDS), equalTo("john"));
+		for(Future<String> waiter : waiters) {
+			assertThat(waiter.get(5, TimeUnit.SECONDS), equalTo("john"));
+		}
+		assertThat(calls.get(), equalTo(1));
+		assertThat(singleFlight.getInFlightCount(), equalTo(0));
+	}
+
+	@Test
+	public void waitersShouldGetTheCallException() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>(Duration.ofSeconds(5));
+		IllegalArgumentException failure = new IllegalArgumentException("no user");
+		CountDownLatch callStarted = new CountDownLatch(1);
+		CountDownLatch releaseCall = new CountDownLatch(1);
+
+		Future<String> leader = executor.submit(() -> singleFlight.execute("key", () -> {
+			callStarted.countDown();
+			await(releaseCall);
+			throw failure;
+		}));
+		callStarted.await(5, TimeUnit.SECONDS);
+		Future<String> waiter = executor.submit(() -> singleFlight.execute("key", () -> "unexpected"));
+		Thread.sleep(100);
+		releaseCall.countDown();
+
+		assertFailedWith(leader, failure);
+		assertFailedWith(waiter, failure);
+	}
+
+	@Test
+	public void waiterShouldFailWithoutRunningTheCallAfterTimeout() throws Exception {
+		SingleFlight<String, String> singleFlight = new SingleFlight<>(Duration.ofMillis(50));
+		AtomicInteger calls = new AtomicInteger();
+		CountDownLatch callStarted = new CountDownLatch(1);
+		CountDownLatch releaseCall = new CountDownLatch(1);
+
+		executor.submit(() -> singleFlight.execute("key", () -> {
+			calls.incrementAndGet();
+			callStarted.countDown();
+			await(releaseCall);
+			return "stuck";
+		}));
+		callStarted.await(5, TimeUnit.SECONDS);
+
+		try {
+			singleFlight.execute("key", () -> {
+				calls.incrementAndGet();
+				return "own result";
+			});
+			fail("Waiter should give up after the timeout");
+		}catch (CloudflareAccessUnauthorizedException e) {
+			assertThat(e.getMessage().contains("key"), equalTo(true));
+		}finally {
+			releaseCall.countDown();
+		}
+		assertThat(calls.get(), equalTo(1));
+	}
+
+	@Test
+	public void sequentialCallsShouldNotShareResults() {
+		SingleFlight<String, Integer> singleFlight = new SingleFlight<>(Duration.ofSeconds(5));
+		AtomicInteger calls = new AtomicInteger();
+
+		singleFlight.execute("key", calls::incrementAndGet);
+		assertThat(singleFlight.execute("key", calls::incrementAndGet), equalTo(2));
+	}
+
+	private static void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void assertFailedWith(Future<?> future, Throwable expected) throws Exception {
+		try {
+			future.get(5, TimeUnit.SECONDS);
+			fail("Call should have failed");
+		}catch (ExecutionException e) {
+			assertThat(e.getCause(), sameInstance(expected));
+		}
+	}
+}
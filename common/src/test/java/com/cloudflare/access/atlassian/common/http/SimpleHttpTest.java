@@ -0,0 +1,82 @@
+package com.cloudflare.access.atlassian.common.http;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.ExpectedException;
+
+import com.cloudflare.access.atlassian.common.exception.HttpRequestException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+public class SimpleHttpTest {
+
+	@Rule
+	public ExpectedException expectedException = ExpectedException.none();
+
+	private HttpServer server;
+	private String baseUrl;
+
+	@Before
+	public void startServer() throws IOException {
+		server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/small", exchange -> respond(exchange, 200, "{\"keys\": []}"));
+		server.createContext("/large", exchange -> respond(exchange, 200, new String(new char[2048]).replace('\0', 'x')));
+		server.start();
+		baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+	}
+
+	@After
+	public void stopServer() {
+		server.stop(0);
+	}
+
+	@Test
+	public void shouldReuseConnectionsFromThePool() {
+		try(SimpleHttp http = new SimpleHttp()){
+			assertThat(http.get(baseUrl + "/small"), equalTo("{\"keys\": []}"));
+			assertThat(http.get(baseUrl + "/small"), equalTo("{\"keys\": []}"));
+
+			assertThat(http.getPoolStats().getLeased(), equalTo(0));
+			assertThat(http.getPoolStats().getAvailable(), equalTo(1));
+		}
+	}
+
+	@Test
+	public void shouldFetchAsynchronously() throws Exception {
+		try(SimpleHttp http = new SimpleHttp()){
+			CompletableFuture<String> body = http.getAsync(baseUrl + "/small");
+
+			assertThat(body.get(5, TimeUnit.SECONDS), equalTo("{\"keys\": []}"));
+		}
+	}
+
+	@Test
+	public void shouldRejectResponsesLargerThanTheLimit() {
+		expectedException.expect(HttpRequestException.class);
+
+		try(SimpleHttp http = new SimpleHttp(Duration.ofSeconds(1), Duration.ofSeconds(1), Duration.ofSeconds(1), 1024)){
+			http.get(baseUrl + "/large");
+		}
+	}
+
+	private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+		byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+		exchange.sendResponseHeaders(status, bytes.length);
+		try(OutputStream out = exchange.getResponseBody()){
+			out.write(bytes);
+		}
+	}
+}
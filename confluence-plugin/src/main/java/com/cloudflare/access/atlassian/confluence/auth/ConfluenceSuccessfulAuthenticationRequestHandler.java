@@ -1,12 +1,9 @@
 package com.cloudflare.access.atlassian.confluence.auth;
 
-import static org.apache.commons.lang3.StringUtils.stripToEmpty;
-
 import java.io.IOException;
-import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
-import java.util.stream.Collectors;
-import java.util.stream.StreamSupport;
+import java.util.concurrent.TimeUnit;
 
 import javax.servlet.FilterChain;
 import javax.servlet.ServletException;
@@ -16,6 +13,8 @@ import javax.servlet.http.HttpSession;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -24,23 +23,70 @@ import com.atlassian.confluence.security.seraph.ConfluenceUserPrincipal;
 import com.atlassian.confluence.user.ConfluenceUser;
 import com.atlassian.confluence.user.UserAccessor;
 import com.atlassian.crowd.embedded.api.User;
+import com.atlassian.crowd.event.user.UserDeletedEvent;
+import com.atlassian.crowd.event.user.UserUpdatedEvent;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
 import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
-import com.atlassian.sal.api.component.ComponentLocator;
 import com.atlassian.seraph.auth.DefaultAuthenticator;
-import com.atlassian.seraph.service.rememberme.RememberMeService;
+import com.cloudflare.access.atlassian.base.auth.LoginAttemptRecorder;
 import com.cloudflare.access.atlassian.base.auth.SuccessfulAuthenticationRequestHandler;
+import com.cloudflare.access.atlassian.base.support.ComponentHandles;
+import com.cloudflare.access.atlassian.common.concurrent.ComponentHandle;
 import com.cloudflare.access.atlassian.confluence.auth.exception.ConfluenceUserNotFoundException;
-
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+/**
+ * Logs in the Crowd user resolved from the token, mapping it to its Confluence user with a single
+ * lookup by username.
+ *
+ * The user is the only active user of the token email, unless the username match is trusted with
+ * {@link com.cloudflare.access.atlassian.base.utils.EnvironmentFlags#USERNAME_MATCH_TRUSTED}, where it
+ * is the active user with the token email and the claimed username. Mapping by username logs in
+ * exactly that user in both cases, so no choice is made here among users sharing the email.
+ *
+ * The Confluence users are cached with the same expiration as the Crowd lookups and are
+ * invalidated by the Crowd user updated and deleted events.
+ */
 @Component
-public class ConfluenceSuccessfulAuthenticationRequestHandler implements SuccessfulAuthenticationRequestHandler{
+public class ConfluenceSuccessfulAuthenticationRequestHandler implements SuccessfulAuthenticationRequestHandler, InitializingBean, DisposableBean{
 
 	private static final Logger log = LoggerFactory.getLogger(ConfluenceSuccessfulAuthenticationRequestHandler.class);
 
-	private UserAccessor userAcessor;
+	private static final long CACHE_SIZE = 10000;
+	private static final long USER_TTL_MINUTES = 10;
+
+	private final UserAccessor userAcessor;
+	private final EventPublisher eventPublisher;
+	private final ComponentHandle<LoginManager> loginManager;
+	private final RememberMeHelperService rememberMeService;
+	private final LoginAttemptRecorder loginAttemptRecorder;
+	private final Cache<String, ConfluenceUser> usersByName;
 
 	@Autowired
-	public ConfluenceSuccessfulAuthenticationRequestHandler(@ComponentImport UserAccessor userAcessor) {
+	public ConfluenceSuccessfulAuthenticationRequestHandler(@ComponentImport UserAccessor userAcessor, @ComponentImport EventPublisher eventPublisher, ComponentHandles componentHandles, RememberMeHelperService rememberMeService, LoginAttemptRecorder loginAttemptRecorder) {
 		this.userAcessor = userAcessor;
+		this.eventPublisher = eventPublisher;
+		this.loginManager = componentHandles.handle(LoginManager.class);
+		this.rememberMeService = rememberMeService;
+		this.loginAttemptRecorder = loginAttemptRecorder;
+		this.usersByName = CacheBuilder.newBuilder()
+				.maximumSize(CACHE_SIZE)
+				.expireAfterWrite(USER_TTL_MINUTES, TimeUnit.MINUTES)
+				.recordStats()
+				.build();
+	}
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		this.eventPublisher.register(this);
+	}
+
+	@Override
+	public void destroy() throws Exception {
+		this.eventPublisher.unregister(this);
 	}
 
 	@Override
@@ -62,44 +108,53 @@ public class ConfluenceSuccessfulAuthenticationRequestHandler implements Success
 		httpSession.setAttribute(DefaultAuthenticator.LOGGED_IN_KEY, new ConfluenceUserPrincipal(crowdUserToConfluenceUser(user)));
 		httpSession.setAttribute(DefaultAuthenticator.LOGGED_OUT_KEY, null);
 
-		log.debug("Principal defined in session, setting sucessful login...");
-		ComponentLocator.getComponent(LoginManager.class).onSuccessfulLoginAttempt(user.getName(), httpRequest);
+		log.debug("Principal defined in session, recording sucessful login...");
+		loginAttemptRecorder.record(httpRequest, user.getName(), (request, username) -> loginManager.get().onSuccessfulLoginAttempt(username, request));
 
 		log.debug("Setting remember me cookie...");
-		ComponentLocator.getComponent(RememberMeService.class).addRememberMeCookie(httpRequest, httpResponse, user.getName());
+		rememberMeService.addRememberMeCookie(httpRequest, httpResponse, user.getName());
 	}
 
 	private ConfluenceUser crowdUserToConfluenceUser(User user){
 		Objects.requireNonNull(user, "Atlassian User should not be null");
 
-		List<User> activeUsers = findActiveMatchingUsers(user);
-
-		shouldContainOnlyOne(user, activeUsers);
+		String cacheKey = toCacheKey(user.getName());
+		ConfluenceUser confluenceUser = usersByName.getIfPresent(cacheKey);
+		if(confluenceUser == null) {
+			confluenceUser = userAcessor.getUserByName(user.getName());
+			if(confluenceUser == null) {
+				String errorMsg = "No Confluence User found for user " + user.getName() + " of email " + user.getEmailAddress();
+				log.error(errorMsg);
+				throw new ConfluenceUserNotFoundException(errorMsg);
+			}
+			usersByName.put(cacheKey, confluenceUser);
+		}
+		return confluenceUser;
+	}
 
-		ConfluenceUser confluenceUser = userAcessor.getUserByName(activeUsers.get(0).getName());
+	@EventListener
+	public void onUserUpdated(UserUpdatedEvent event) {
+		invalidateUser(event.getUser().getName());
+	}
 
-		return confluenceUser;
+	@EventListener
+	public void onUserDeleted(UserDeletedEvent event) {
+		invalidateUser(event.getUsername());
 	}
 
-	private List<User> findActiveMatchingUsers(User user) {
-		@SuppressWarnings("unchecked")
-		Iterable<User> users = userAcessor.getUsersByEmail(stripToEmpty(user.getEmailAddress())).pager();
-		return StreamSupport.stream(users.spliterator(), false)
-				.filter(u -> u.isActive())
-				.collect(Collectors.toList());
+	public CacheStats getUserCacheStats() {
+		return usersByName.stats();
 	}
 
-	private void shouldContainOnlyOne(User user, List<User> users) {
-		String errorMsg;
-		if(users.isEmpty()) {
-			errorMsg = "Search for Confluence User by email returned empty: " + user.getEmailAddress();
-			log.error(errorMsg);
-			throw new ConfluenceUserNotFoundException(errorMsg);
-		}else if(users.size() > 1) {
-			errorMsg = "Search for active Confluence User by email returned more than one result: " + user.getEmailAddress() + " => " + users.size() + " users";
-			log.error(errorMsg);
-			throw new ConfluenceUserNotFoundException(errorMsg);
+	private void invalidateUser(String username) {
+		if(username != null) {
+			log.debug("Invalidating cached Confluence user {}", username);
+			usersByName.invalidate(toCacheKey(username));
 		}
 	}
 
+	private static String toCacheKey(String username) {
+		return username.toLowerCase(Locale.ROOT);
+	}
+
 }
@@ -13,18 +13,18 @@ import javax.servlet.ServletResponse;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.atlassian.sal.api.component.ComponentLocator;
-import com.atlassian.seraph.service.rememberme.RememberMeService;
 import com.cloudflare.access.atlassian.base.auth.CloudflareAccessService;
 
 @Named("CloudflareAccessLogoutFilter")
 public class CloudflareAccessLogoutFilter implements Filter{
 
 	private CloudflareAccessService cloudflareAccess;
+	private RememberMeHelperService rememberMeService;
 
 	@Inject
-	public CloudflareAccessLogoutFilter(CloudflareAccessService cloudflareAccess) {
+	public CloudflareAccessLogoutFilter(CloudflareAccessService cloudflareAccess, RememberMeHelperService rememberMeService) {
 		this.cloudflareAccess = cloudflareAccess;
+		this.rememberMeService = rememberMeService;
 	}
 
 	@Override
@@ -40,7 +40,7 @@ public class CloudflareAccessLogoutFilter implements Filter{
 		final HttpServletRequest httpRequest = (HttpServletRequest) request;
 		final HttpServletResponse httpResponse = (HttpServletResponse) response;
 
-		ComponentLocator.getComponent(RememberMeService.class).removeRememberMeCookie(httpRequest, httpResponse);
+		rememberMeService.removeRememberMeCookie(httpRequest, httpResponse);
 
 		cloudflareAccess.processLogoutRequest(httpRequest, httpResponse, chain);
 	}
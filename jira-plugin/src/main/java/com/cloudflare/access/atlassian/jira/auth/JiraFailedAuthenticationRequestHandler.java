@@ -3,11 +3,8 @@ package com.cloudflare.access.atlassian.jira.auth;
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 import java.util.Arrays;
-import java.util.Optional;
-import java.util.concurrent.TimeUnit;
 
 import javax.inject.Inject;
-import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
@@ -16,34 +13,36 @@ import org.slf4j.LoggerFactory;
 import org.springframework.stereotype.Component;
 
 import com.cloudflare.access.atlassian.base.auth.FailedAuthenticationRequestHandler;
-import com.google.common.cache.Cache;
-import com.google.common.cache.CacheBuilder;
 
+/**
+ * Answers HTML requests carrying a session cookie with a redirect to the same path, letting the
+ * product clean up the cookies, and answers the follow-up request with the error.
+ *
+ * The follow-up request is recognized by the signed, short-lived token added to the redirect,
+ * so it is answered the same way by any node of a cluster.
+ */
 @Component
 public class JiraFailedAuthenticationRequestHandler implements FailedAuthenticationRequestHandler{
 
-	static final String CF_PLUGIN_REQUEST_IDENTIFIER_PARAM = "cfPluginRequestIdentifier";
+	static final String CF_PLUGIN_REDIRECT_TOKEN_PARAM = "cfPluginRedirectToken";
 	private static final Logger log = LoggerFactory.getLogger(JiraFailedAuthenticationRequestHandler.class);
-	private static final Cache<String, Boolean> REDIRECT_CONTROL = CacheBuilder.newBuilder()
-			.concurrencyLevel(4)
-			.maximumSize(10000)
-			.expireAfterWrite(1, TimeUnit.MINUTES)
-			.build();
 
 	private RememberMeHelperService rememberMeService;
+	private RedirectTokenSigner redirectTokenSigner;
 
 	@Inject
-	public JiraFailedAuthenticationRequestHandler(RememberMeHelperService rememberMeService) {
+	public JiraFailedAuthenticationRequestHandler(RememberMeHelperService rememberMeService, RedirectTokenSigner redirectTokenSigner) {
 		this.rememberMeService = rememberMeService;
+		this.redirectTokenSigner = redirectTokenSigner;
 	}
 
 	@Override
 	public void handle(HttpServletRequest httpRequest, HttpServletResponse httpResponse, Throwable e) {
 		try {
-			String requestIdentifier = getRequestIdentifier(httpRequest);
+			String path = httpRequest.getRequestURI();
 
-			if(acceptsHtml(httpRequest) && shouldSendCookieCleanupRedirect(httpRequest, requestIdentifier)) {
-				httpResponse.sendRedirect(String.format("%s?%s=%s",httpRequest.getRequestURI(), CF_PLUGIN_REQUEST_IDENTIFIER_PARAM, requestIdentifier));
+			if(acceptsHtml(httpRequest) && shouldSendCookieCleanupRedirect(httpRequest, path)) {
+				httpResponse.sendRedirect(String.format("%s?%s=%s", path, CF_PLUGIN_REDIRECT_TOKEN_PARAM, redirectTokenSigner.sign(path)));
 			}else {
 				rememberMeService.removeRememberMeCookie(httpRequest, httpResponse);
 				sendErrorResponse(httpRequest, httpResponse, e);
@@ -62,32 +61,20 @@ public class JiraFailedAuthenticationRequestHandler implements FailedAuthenticat
 	 * @param request The request to check
 	 * @return True if should redirect, false if it should send error
 	 */
-	private boolean shouldSendCookieCleanupRedirect(HttpServletRequest request, String requestIdentifier) {
-		try {
-			if(isBlank(requestIdentifier)) {
-				return false;
-			}
-
-			boolean shouldRedirect = REDIRECT_CONTROL.get(requestIdentifier, () -> true);
-
-			if(shouldRedirect == false) {
-				REDIRECT_CONTROL.invalidate(requestIdentifier);
-			}else {
-				REDIRECT_CONTROL.put(requestIdentifier, false);
-			}
-
-			return shouldRedirect;
-		}catch (Exception e) {
-			log.error("This was not expected to ever happen, ignoring exception: " + e.getMessage(), e);
+	private boolean shouldSendCookieCleanupRedirect(HttpServletRequest request, String path) {
+		if(hasSessionCookie(request) == false) {
 			return false;
 		}
-	}
 
-	private String getRequestIdentifier(HttpServletRequest request) {
-		if(request.getCookies() == null) return null;
+		String redirectToken = request.getParameter(CF_PLUGIN_REDIRECT_TOKEN_PARAM);
+		if(isBlank(redirectToken)) {
+			return true;
+		}
+		return redirectTokenSigner.isValid(redirectToken, path) == false;
+	}
 
-		Optional<Cookie> jsessionid = Arrays.stream(request.getCookies()).filter(cookie -> cookie.getName().equalsIgnoreCase("JSESSIONID")).findFirst();
-		String requestIdentifier = jsessionid.map(Cookie::getValue).orElseGet(() -> request.getParameter(CF_PLUGIN_REQUEST_IDENTIFIER_PARAM));
-		return requestIdentifier;
+	private boolean hasSessionCookie(HttpServletRequest request) {
+		if(request.getCookies() == null) return false;
+		return Arrays.stream(request.getCookies()).anyMatch(cookie -> cookie.getName().equalsIgnoreCase("JSESSIONID"));
 	}
 }
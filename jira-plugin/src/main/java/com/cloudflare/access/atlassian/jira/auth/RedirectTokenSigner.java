@@ -0,0 +1,158 @@
+package com.cloudflare.access.atlassian.jira.auth;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.inject.Inject;
+
+import org.apache.commons.lang3.StringUtils;
+import org.springframework.stereotype.Component;
+
+import com.atlassian.plugin.spring.scanner.annotation.imports.ComponentImport;
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+/**
+ * Signs and verifies the short-lived token carried on the cookie cleanup redirect, so any node
+ * of a cluster can tell a follow-up request from a first one without keeping state.
+ *
+ * The token holds its expiration time and a HMAC of that time and the redirected path. The
+ * signing key is generated once and stored in the global plugin settings, shared by all nodes.
+ *
+ * The key is created under a lock, so the signers of a node never use different keys. Nodes
+ * creating a key at the same time may still each keep their own one until a token fails to
+ * validate: the stored key is then loaded again and replaces the one kept in memory. That reload
+ * runs at most once per reload interval, so forged tokens can't turn every request into a settings
+ * read.
+ */
+@Component
+public class RedirectTokenSigner {
+
+	static final String SIGNING_KEY_SETTING = "com.cloudflare.access.atlassian.jira.redirectSigningKey";
+	static final Duration TOKEN_TTL = Duration.ofMinutes(1);
+
+	private static final String HMAC_ALGORITHM = "HmacSHA256";
+	private static final int SIGNING_KEY_BYTES = 32;
+	private static final Object SIGNING_KEY_CREATION_LOCK = new Object();
+	private static final Duration KEY_RELOAD_INTERVAL = Duration.ofSeconds(10);
+
+	private final Supplier<byte[]> signingKeyLoader;
+	private final Clock clock;
+	private final AtomicLong nextKeyReloadMillis = new AtomicLong();
+
+	private volatile byte[] signingKey;
+
+	@Inject
+	public RedirectTokenSigner(@ComponentImport PluginSettingsFactory pluginSettingsFactory) {
+		this(() -> loadOrCreateSigningKey(pluginSettingsFactory.createGlobalSettings()), Clock.systemUTC());
+	}
+
+	RedirectTokenSigner(Supplier<byte[]> signingKeyLoader, Clock clock) {
+		this.signingKeyLoader = signingKeyLoader;
+		this.clock = clock;
+	}
+
+	public String sign(String path) {
+		long expiresAt = clock.instant().plus(TOKEN_TTL).getEpochSecond();
+		return expiresAt + "." + hmac(currentSigningKey(), expiresAt, path);
+	}
+
+	/**
+	 * @return true if the token was signed for this path and did not expire
+	 */
+	public boolean isValid(String token, String path) {
+		String expiresAtText = StringUtils.substringBefore(token, ".");
+		String signature = StringUtils.substringAfter(token, ".");
+		if(StringUtils.isNumeric(expiresAtText) == false || StringUtils.isEmpty(signature)) {
+			return false;
+		}
+
+		long expiresAt;
+		try {
+			expiresAt = Long.parseLong(expiresAtText);
+		}catch (NumberFormatException e) {
+			return false;
+		}
+		if(clock.instant().getEpochSecond() > expiresAt) {
+			return false;
+		}
+
+		byte[] key = currentSigningKey();
+		if(isSignedWith(key, expiresAt, path, signature)) {
+			return true;
+		}
+		// The token may be signed with the stored key while a concurrent creation left us another one
+		if(claimKeyReload() == false) {
+			return false;
+		}
+		byte[] storedKey = signingKeyLoader.get();
+		if(Arrays.equals(key, storedKey)) {
+			return false;
+		}
+		signingKey = storedKey;
+		return isSignedWith(storedKey, expiresAt, path, signature);
+	}
+
+	private boolean claimKeyReload() {
+		long now = clock.millis();
+		long nextReload = nextKeyReloadMillis.get();
+		return now >= nextReload && nextKeyReloadMillis.compareAndSet(nextReload, now + KEY_RELOAD_INTERVAL.toMillis());
+	}
+
+	private byte[] currentSigningKey() {
+		byte[] key = signingKey;
+		if(key == null) {
+			key = signingKeyLoader.get();
+			signingKey = key;
+		}
+		return key;
+	}
+
+	private static boolean isSignedWith(byte[] key, long expiresAt, String path, String signature) {
+		return MessageDigest.isEqual(hmac(key, expiresAt, path).getBytes(UTF_8), signature.getBytes(UTF_8));
+	}
+
+	private static String hmac(byte[] key, long expiresAt, String path) {
+		try {
+			Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+			mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+			byte[] signature = mac.doFinal((expiresAt + ":" + path).getBytes(UTF_8));
+			return Base64.getUrlEncoder().withoutPadding().encodeToString(signature);
+		}catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Unable to sign the redirect token", e);
+		}
+	}
+
+	private static byte[] loadOrCreateSigningKey(PluginSettings settings) {
+		String storedKey = readSigningKey(settings);
+		if(storedKey == null) {
+			synchronized (SIGNING_KEY_CREATION_LOCK) {
+				storedKey = readSigningKey(settings);
+				if(storedKey == null) {
+					byte[] key = new byte[SIGNING_KEY_BYTES];
+					new SecureRandom().nextBytes(key);
+					settings.put(SIGNING_KEY_SETTING, Base64.getEncoder().encodeToString(key));
+					// Read back, another node may have stored its own key at the same time
+					storedKey = readSigningKey(settings);
+				}
+			}
+		}
+		return Base64.getDecoder().decode(storedKey);
+	}
+
+	private static String readSigningKey(PluginSettings settings) {
+		Object storedKey = settings.get(SIGNING_KEY_SETTING);
+		return storedKey instanceof String ? StringUtils.trimToNull((String) storedKey) : null;
+	}
+}
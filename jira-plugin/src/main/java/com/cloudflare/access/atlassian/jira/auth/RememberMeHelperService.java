@@ -3,17 +3,30 @@ package com.cloudflare.access.atlassian.jira.auth;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
-import com.atlassian.sal.api.component.ComponentLocator;
 import com.atlassian.seraph.service.rememberme.RememberMeService;
+import com.cloudflare.access.atlassian.base.support.ComponentHandles;
+import com.cloudflare.access.atlassian.common.concurrent.ComponentHandle;
 
 
 @Component
 public class RememberMeHelperService {
 
+	private final ComponentHandle<RememberMeService> rememberMeService;
+
+	@Autowired
+	public RememberMeHelperService(ComponentHandles componentHandles) {
+		this.rememberMeService = componentHandles.handle(RememberMeService.class);
+	}
+
+	public void addRememberMeCookie(HttpServletRequest httpRequest, HttpServletResponse httpResponse, String username) {
+		rememberMeService.get().addRememberMeCookie(httpRequest, httpResponse, username);
+	}
+
 	public void removeRememberMeCookie(HttpServletRequest httpRequest, HttpServletResponse httpResponse) {
-		ComponentLocator.getComponent(RememberMeService.class).removeRememberMeCookie(httpRequest, httpResponse);
+		rememberMeService.get().removeRememberMeCookie(httpRequest, httpResponse);
 	}
 
 }
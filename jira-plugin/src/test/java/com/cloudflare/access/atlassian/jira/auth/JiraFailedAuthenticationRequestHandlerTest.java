@@ -1,10 +1,15 @@
 package com.cloudflare.access.atlassian.jira.auth;
 
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.*;
 
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneOffset;
 
 import javax.servlet.http.Cookie;
 import javax.servlet.http.HttpServletRequest;
@@ -21,12 +26,17 @@ import com.cloudflare.access.atlassian.base.auth.AuthenticationErrorServlet;
 @RunWith(MockitoJUnitRunner.class)
 public class JiraFailedAuthenticationRequestHandlerTest {
 
+	private static final byte[] SIGNING_KEY = "test-signing-key".getBytes(StandardCharsets.UTF_8);
+	private static final Instant NOW = Instant.parse("2020-01-01T10:00:00Z");
+
 	@Mock
 	private RememberMeHelperService rememberMeService;
 
+	private RedirectTokenSigner signer = signerAt(NOW);
+
 	@Test
 	public void testThatSends401WhenNoCookieIsAvailable() throws IOException {
-		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService);
+		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService, signer);
 
 		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
 		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
@@ -42,7 +52,7 @@ public class JiraFailedAuthenticationRequestHandlerTest {
 
 	@Test
 	public void testThatSendsRedirectOnTheFirstFailure() throws IOException {
-		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService);
+		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService, signer);
 
 		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
 		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
@@ -53,13 +63,16 @@ public class JiraFailedAuthenticationRequestHandlerTest {
 
 		handler.handle(httpRequest, httpResponse, new Exception("testing exception"));
 
-		verify(httpResponse, times(1)).sendRedirect(httpRequest.getRequestURI() + "?" + JiraFailedAuthenticationRequestHandler.CF_PLUGIN_REQUEST_IDENTIFIER_PARAM + "=somehashvalue" );
+		ArgumentCaptor<String> redirectUrlCaptor = ArgumentCaptor.forClass(String.class);
+		verify(httpResponse, times(1)).sendRedirect(redirectUrlCaptor.capture());
+		assertTrue(redirectUrlCaptor.getValue().startsWith("/secure/website?" + JiraFailedAuthenticationRequestHandler.CF_PLUGIN_REDIRECT_TOKEN_PARAM + "="));
+		assertTrue(signer.isValid(redirectTokenOf(redirectUrlCaptor.getValue()), "/secure/website"));
 		verify(httpResponse, never()).sendError(401);
 	}
 
 	@Test
 	public void testThatRedirectsToErrorPageOnTheSubsequentFailure() throws IOException {
-		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService);
+		JiraFailedAuthenticationRequestHandler handler = new JiraFailedAuthenticationRequestHandler(rememberMeService, signer);
 
 		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
 		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
@@ -78,10 +91,63 @@ public class JiraFailedAuthenticationRequestHandlerTest {
 		httpResponse = mock(HttpServletResponse.class);
 		Exception secondException = new Exception("another testing exception");
 
-		when(httpRequest.getRequestURI()).thenReturn(redirectUrlCaptor.getValue());
+		when(httpRequest.getParameter(JiraFailedAuthenticationRequestHandler.CF_PLUGIN_REDIRECT_TOKEN_PARAM)).thenReturn(redirectTokenOf(redirectUrlCaptor.getValue()));
 		handler.handle(httpRequest, httpResponse, secondException);
 		verify(httpResponse, times(1)).sendRedirect(redirectUrlCaptor.capture());
 		assertTrue(redirectUrlCaptor.getValue().contains(AuthenticationErrorServlet.PATH));
 	}
 
+	@Test
+	public void testThatFollowUpIsRecognizedByAnotherHandlerInstance() throws IOException {
+		HttpServletRequest httpRequest = htmlRequestWithSession("/secure/website");
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		new JiraFailedAuthenticationRequestHandler(rememberMeService, signer).handle(httpRequest, httpResponse, new Exception("testing exception"));
+
+		ArgumentCaptor<String> redirectUrlCaptor = ArgumentCaptor.forClass(String.class);
+		verify(httpResponse).sendRedirect(redirectUrlCaptor.capture());
+
+		//Follow-up served by another cluster node sharing the signing key
+		HttpServletResponse followUpResponse = mock(HttpServletResponse.class);
+		when(httpRequest.getParameter(JiraFailedAuthenticationRequestHandler.CF_PLUGIN_REDIRECT_TOKEN_PARAM)).thenReturn(redirectTokenOf(redirectUrlCaptor.getValue()));
+		new JiraFailedAuthenticationRequestHandler(rememberMeService, signerAt(NOW.plusSeconds(5))).handle(httpRequest, followUpResponse, new Exception("testing exception"));
+
+		verify(followUpResponse).sendRedirect(redirectUrlCaptor.capture());
+		assertTrue(redirectUrlCaptor.getValue().contains(AuthenticationErrorServlet.PATH));
+	}
+
+	@Test
+	public void testThatExpiredOrTamperedTokenRedirectsAgain() throws IOException {
+		String token = signer.sign("/secure/website");
+		RedirectTokenSigner laterSigner = signerAt(NOW.plus(RedirectTokenSigner.TOKEN_TTL).plusSeconds(1));
+
+		assertFalse(laterSigner.isValid(token, "/secure/website"));
+		assertFalse(signer.isValid(token, "/secure/other"));
+		assertFalse(signer.isValid(token.replace('.', '-'), "/secure/website"));
+		assertFalse(signer.isValid(Long.MAX_VALUE + "." + token.substring(token.indexOf('.') + 1), "/secure/website"));
+
+		HttpServletRequest httpRequest = htmlRequestWithSession("/secure/website");
+		when(httpRequest.getParameter(JiraFailedAuthenticationRequestHandler.CF_PLUGIN_REDIRECT_TOKEN_PARAM)).thenReturn(token);
+		HttpServletResponse httpResponse = mock(HttpServletResponse.class);
+		new JiraFailedAuthenticationRequestHandler(rememberMeService, laterSigner).handle(httpRequest, httpResponse, new Exception("testing exception"));
+
+		ArgumentCaptor<String> redirectUrlCaptor = ArgumentCaptor.forClass(String.class);
+		verify(httpResponse).sendRedirect(redirectUrlCaptor.capture());
+		assertTrue(laterSigner.isValid(redirectTokenOf(redirectUrlCaptor.getValue()), "/secure/website"));
+	}
+
+	private HttpServletRequest htmlRequestWithSession(String path) {
+		HttpServletRequest httpRequest = mock(HttpServletRequest.class);
+		when(httpRequest.getHeader("Accept")).thenReturn("text/html");
+		when(httpRequest.getRequestURI()).thenReturn(path);
+		when(httpRequest.getCookies()).thenReturn(new Cookie[] {new Cookie("JSESSIONID","somehashvalue")});
+		return httpRequest;
+	}
+
+	private static String redirectTokenOf(String redirectUrl) {
+		return redirectUrl.substring(redirectUrl.indexOf('=') + 1);
+	}
+
+	private static RedirectTokenSigner signerAt(Instant now) {
+		return new RedirectTokenSigner(() -> SIGNING_KEY, Clock.fixed(now, ZoneOffset.UTC));
+	}
 }
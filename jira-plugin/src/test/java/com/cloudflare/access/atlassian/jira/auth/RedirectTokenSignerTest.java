@@ -0,0 +1,145 @@
+package com.cloudflare.access.atlassian.jira.auth;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Base64;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.atlassian.sal.api.pluginsettings.PluginSettings;
+import com.atlassian.sal.api.pluginsettings.PluginSettingsFactory;
+
+public class RedirectTokenSignerTest {
+
+	private static final String PATH = "/secure/website";
+
+	private final Map<String, Object> storedSettings = new ConcurrentHashMap<>();
+	private final AtomicInteger settingWrites = new AtomicInteger();
+	private final ExecutorService executor = Executors.newFixedThreadPool(2);
+
+	@After
+	public void tearDown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void signersCreatedConcurrentlyShouldShareTheStoredKey() throws Exception {
+		PluginSettingsFactory settingsFactory = settingsFactory();
+		CountDownLatch start = new CountDownLatch(1);
+
+		Future<RedirectTokenSigner> firstSigner = executor.submit(() -> signedOnceAfter(start, new RedirectTokenSigner(settingsFactory)));
+		Future<RedirectTokenSigner> secondSigner = executor.submit(() -> signedOnceAfter(start, new RedirectTokenSigner(settingsFactory)));
+		start.countDown();
+		RedirectTokenSigner first = firstSigner.get(5, TimeUnit.SECONDS);
+		RedirectTokenSigner second = secondSigner.get(5, TimeUnit.SECONDS);
+
+		assertTrue(second.isValid(first.sign(PATH), PATH));
+		assertTrue(first.isValid(second.sign(PATH), PATH));
+		assertEquals(1, settingWrites.get());
+	}
+
+	@Test
+	public void signerShouldSwitchToTheStoredKeyWhenAnotherNodeReplacedIt() {
+		RedirectTokenSigner thisNode = new RedirectTokenSigner(settingsFactory());
+		thisNode.sign(PATH);
+
+		//Another node stored its own key after this one was loaded
+		storedSettings.put(RedirectTokenSigner.SIGNING_KEY_SETTING, Base64.getEncoder().encodeToString(new byte[32]));
+		RedirectTokenSigner otherNode = new RedirectTokenSigner(settingsFactory());
+
+		assertTrue(thisNode.isValid(otherNode.sign(PATH), PATH));
+		assertTrue(otherNode.isValid(thisNode.sign(PATH), PATH));
+	}
+
+	@Test
+	public void forgedTokensShouldReloadTheKeyAtMostOncePerInterval() {
+		AtomicInteger keyLoads = new AtomicInteger();
+		MutableClock clock = new MutableClock(Instant.parse("2020-01-01T10:00:00Z"));
+		RedirectTokenSigner signer = new RedirectTokenSigner(() -> {
+			keyLoads.incrementAndGet();
+			return new byte[32];
+		}, clock);
+		String validToken = signer.sign(PATH);
+		long expiresAt = clock.instant().plusSeconds(30).getEpochSecond();
+
+		for(int i = 0; i < 100; i++) {
+			assertFalse(signer.isValid(expiresAt + ".forged" + i, PATH));
+		}
+		assertEquals(2, keyLoads.get());
+		assertTrue(signer.isValid(validToken, PATH));
+
+		clock.advance(Duration.ofSeconds(11));
+		assertFalse(signer.isValid(expiresAt + ".forged", PATH));
+		assertFalse(signer.isValid(expiresAt + ".forged", PATH));
+		assertEquals(3, keyLoads.get());
+	}
+
+	private static RedirectTokenSigner signedOnceAfter(CountDownLatch start, RedirectTokenSigner signer) throws InterruptedException {
+		start.await();
+		signer.sign(PATH);
+		return signer;
+	}
+
+	private PluginSettingsFactory settingsFactory() {
+		PluginSettings settings = mock(PluginSettings.class);
+		when(settings.get(anyString())).thenAnswer(invocation -> storedSettings.get(invocation.getArguments()[0]));
+		doAnswer(invocation -> {
+			// Widens the window between the key creation and its read back
+			settingWrites.incrementAndGet();
+			Thread.sleep(20);
+			return storedSettings.put((String) invocation.getArguments()[0], invocation.getArguments()[1]);
+		}).when(settings).put(anyString(), any());
+
+		PluginSettingsFactory settingsFactory = mock(PluginSettingsFactory.class);
+		when(settingsFactory.createGlobalSettings()).thenReturn(settings);
+		return settingsFactory;
+	}
+
+	private static class MutableClock extends Clock {
+		private volatile Instant now;
+
+		MutableClock(Instant now) {
+			this.now = now;
+		}
+
+		void advance(Duration duration) {
+			now = now.plus(duration);
+		}
+
+		@Override
+		public Instant instant() {
+			return now;
+		}
+
+		@Override
+		public ZoneId getZone() {
+			return ZoneOffset.UTC;
+		}
+
+		@Override
+		public Clock withZone(ZoneId zone) {
+			throw new UnsupportedOperationException();
+		}
+	}
+}